@@ -0,0 +1,113 @@
+package org.incendo.cloudpaper;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * Seeds and opens the file based SQLite databases the benchmarks run against.
+ * Seeded files are kept under target/benchmark-databases and reused, every trial works on its own copy.
+ */
+final class BenchmarkDatabase {
+
+    // Every player owns about this many tickets, whatever the table size
+    static final int TICKETS_PER_PLAYER = 20;
+    private static final int SEED_BATCH_SIZE = 1000;
+    private static final long SEED = 42L;
+    private static final Path DIRECTORY = Paths.get("target", "benchmark-databases");
+
+    static {
+        Fixtures.quietLogger();
+    }
+
+    private BenchmarkDatabase() {
+    }
+
+
+    /**
+     * Method to get a private copy of a database seeded with the given number of tickets
+     * @param rows Number of tickets
+     * @return Path of the copy, deleted by the caller when the trial ends
+     */
+    static Path copyOfSeeded(int rows) throws IOException, SQLException {
+        Path seeded = seeded(rows);
+        Path copy = Files.createTempFile(DIRECTORY, "trial-" + rows + "-", ".db");
+        Files.copy(seeded, copy, StandardCopyOption.REPLACE_EXISTING);
+        return copy;
+    }
+
+    /**
+     * Method to open a DatabaseManager on a database file, migrating it to the current schema
+     * @param file SQLite database file
+     * @return Connected manager
+     */
+    static DatabaseManager open(Path file) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("database-type", "sqlite");
+        config.set("database-url", "jdbc:sqlite:" + file.toAbsolutePath());
+        config.set("database-pool-size", 4);
+        config.set("database-pool-min-idle", 1);
+        DatabaseManager databaseManager = new DatabaseManager(file.toAbsolutePath().getParent().toFile(), config, new Metrics());
+        databaseManager.connectToDatabase();
+        databaseManager.migrateSchema();
+        return databaseManager;
+    }
+
+    static UUID player(int index) {
+        return new UUID(0x5EED5EEDL, index);
+    }
+
+    static int playerCount(int rows) {
+        return Math.max(1, rows / TICKETS_PER_PLAYER);
+    }
+
+    static Ticket randomTicket(SplittableRandom random, int players, TicketStatus status) {
+        int player = random.nextInt(players);
+        long creationTime = 1_700_000_000_000L + random.nextInt(Integer.MAX_VALUE);
+        return new Ticket(0, player(player), "player" + player, "Benchmark ticket " + random.nextInt(), status, "world",
+                random.nextDouble(-5000, 5000), random.nextDouble(0, 256), random.nextDouble(-5000, 5000),
+                0F, 0F, creationTime, null, null, status == TicketStatus.CLOSED ? creationTime : 0L);
+    }
+
+
+    private static Path seeded(int rows) throws IOException, SQLException {
+        Files.createDirectories(DIRECTORY);
+        int schemaVersion = new SchemaMigrator(SqlDialect.SQLITE).getLatestVersion();
+        Path file = DIRECTORY.resolve("tickets-v" + schemaVersion + "-" + rows + ".db");
+        Path done = DIRECTORY.resolve(file.getFileName() + ".done");
+        if (Files.exists(done)) {
+            return file;
+        }
+        Files.deleteIfExists(file);
+        DatabaseManager databaseManager = open(file);
+        try {
+            // Same seed every time, so every machine benchmarks the same rows
+            SplittableRandom random = new SplittableRandom(SEED);
+            int players = playerCount(rows);
+            List<Ticket> batch = new ArrayList<>(SEED_BATCH_SIZE);
+            for (int i = 0; i < rows; i++) {
+                // Roughly how a live table looks, most tickets still open and a fifth of them closed
+                int roll = random.nextInt(10);
+                TicketStatus status = roll < 7 ? TicketStatus.OPEN : roll < 8 ? TicketStatus.CLAIMED : TicketStatus.CLOSED;
+                batch.add(randomTicket(random, players, status));
+                if (batch.size() == SEED_BATCH_SIZE || i == rows - 1) {
+                    databaseManager.insertTickets(batch);
+                    batch.clear();
+                }
+            }
+        } finally {
+            databaseManager.disconnectFromDatabase();
+        }
+        Files.createFile(done);
+        return file;
+    }
+}
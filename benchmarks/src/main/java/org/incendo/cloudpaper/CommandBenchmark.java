@@ -0,0 +1,82 @@
+package org.incendo.cloudpaper;
+
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The rate limit check at the top of onCommand and /ticket tab completion, for a server with 1000 players online.
+ * Run with '-prof gc' to get the bytes allocated per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class CommandBenchmark {
+
+    private static final int ONLINE = 1024;
+    private static final String[] SUBCOMMANDS = {"list", "create", "claim", "help"};
+    private static final String[] FIRST_ARGUMENT = {""};
+    private static final String[] CLAIM_ID = {"claim", ""};
+    private static final String[] GROUP_NAME = {"group", ""};
+
+    private CommandRateLimiter rateLimiter;
+    private TicketTabCompleter tabCompleter;
+    private UUID[] online;
+    private Player[] players;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Fixtures.quietLogger();
+        PermissonsManager permissonsManager = new PermissonsManager(Fixtures.groupConfig(3, 10000));
+        tabCompleter = new TicketTabCompleter(permissonsManager);
+        rateLimiter = new CommandRateLimiter(Fixtures.pluginConfig(), System.currentTimeMillis());
+        online = new UUID[ONLINE];
+        players = new Player[ONLINE];
+        for (int i = 0; i < ONLINE; i++) {
+            online[i] = Fixtures.member(i % 3, i);
+            players[i] = Fixtures.player(online[i], "player" + i, false);
+            if (i % 2 == 0) {
+                rateLimiter.tryAcquire(online[i], "list", System.currentTimeMillis()); // Half the players ran a command in the last few seconds
+            }
+        }
+    }
+
+
+    // Spread over four buckets with different limits, once a bucket is empty most calls are refused like under spam
+    @Benchmark
+    public long rateLimitCheck() {
+        int i = next++;
+        return rateLimiter.tryAcquire(online[i & (ONLINE - 1)], SUBCOMMANDS[(i >>> 10) & 3], System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public List<String> tabCompleteSubcommand() {
+        return tabCompleter.complete(players[next++ & (ONLINE - 1)], FIRST_ARGUMENT);
+    }
+
+    @Benchmark
+    public List<String> tabCompleteTicketId() {
+        return tabCompleter.complete(players[next++ & (ONLINE - 1)], CLAIM_ID);
+    }
+
+    @Benchmark
+    public List<String> tabCompleteGroupName() {
+        return tabCompleter.complete(players[next++ & (ONLINE - 1)], GROUP_NAME);
+    }
+}
@@ -0,0 +1,105 @@
+package org.incendo.cloudpaper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the DatabaseManager queries against a file based SQLite database seeded with 1k to 1M tickets.
+ * Run with '-prof gc' to also get the bytes allocated per operation (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class DatabaseBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rows;
+
+    private Path database;
+    private DatabaseManager databaseManager;
+    private int players;
+    // Fixed seed, so every run looks up the same IDs and players in the same order
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, SQLException {
+        database = BenchmarkDatabase.copyOfSeeded(rows);
+        databaseManager = BenchmarkDatabase.open(database);
+        players = BenchmarkDatabase.playerCount(rows);
+        random = new SplittableRandom(7L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        databaseManager.disconnectFromDatabase();
+        Files.deleteIfExists(database);
+    }
+
+
+    @Benchmark
+    public int insertTicket() {
+        Ticket ticket = BenchmarkDatabase.randomTicket(random, players, TicketStatus.OPEN);
+        return databaseManager.insertTicket(ticket.getPlayerUUID(), ticket.getUsername(), ticket.getDescription(), ticket.getStatus(), ticket.getWorld(),
+                ticket.getX(), ticket.getY(), ticket.getZ(), ticket.getPitch(), ticket.getYaw(), ticket.getCreationTime());
+    }
+
+    // Reported per ticket, the way the write-behind queue writes them
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int[] insertTickets() throws SQLException {
+        List<Ticket> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(BenchmarkDatabase.randomTicket(random, players, TicketStatus.OPEN));
+        }
+        return databaseManager.insertTickets(batch);
+    }
+
+    @Benchmark
+    public Ticket getTicketInfo() {
+        return databaseManager.getTicketInfo(1 + random.nextInt(rows));
+    }
+
+    @Benchmark
+    public List<Ticket> getPlayerTickets() {
+        return databaseManager.getPlayerTickets(BenchmarkDatabase.player(random.nextInt(players)));
+    }
+
+    // One page of /ticket list as an admin, starting after a random ticket
+    @Benchmark
+    public List<Ticket> getOpenTicketsPage() {
+        return databaseManager.getOpenTickets(null, random.nextInt(rows), 0, 11);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Ticket> getAllTickets() {
+        return databaseManager.getAllTickets();
+    }
+}
@@ -0,0 +1,125 @@
+package org.incendo.cloudpaper;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Synthetic players, group configs and tickets for benchmarks that run without a server
+ */
+final class Fixtures {
+
+    // The permissions the default group-permissions.yml hands out, from the default group up to admin
+    static final List<String> PERMISSIONS = Arrays.asList("ticket.create", "ticket.list.default", "ticket.update", "ticket.close", "ticket.help",
+            "ticket.update.others", "ticket.reopen", "ticket.claim", "ticket.teleport", "ticket.list.admin", "ticket.group", "ticket.reload");
+
+    private Fixtures() {
+    }
+
+
+    static synchronized void quietLogger() {
+        if (Plugin.LOGGER == null) {
+            Plugin.LOGGER = Logger.getLogger("TicketBenchmark");
+            Plugin.LOGGER.setLevel(Level.WARNING); // Info logging would be measured along with the code under test
+        }
+    }
+
+    /**
+     * Method to make a player that only answers getUniqueId, getName and isOp, every other method returns a default value
+     * @param uuid UUID of the player
+     * @param name Name of the player
+     * @param op Whether the player is an operator
+     * @return The player
+     */
+    static Player player(UUID uuid, String name, boolean op) {
+        return (Player) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[]{Player.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId": return uuid;
+                case "getName": return name;
+                case "isOp": return op;
+                case "hashCode": return uuid.hashCode();
+                case "equals": return proxy == args[0];
+                case "toString": return "FakePlayer{" + name + "}";
+                default:
+                    Class<?> type = method.getReturnType();
+                    if (type == boolean.class) return false;
+                    if (type == int.class || type == long.class || type == short.class || type == byte.class) return 0;
+                    if (type == double.class) return 0D;
+                    if (type == float.class) return 0F;
+                    return null;
+            }
+        });
+    }
+
+    static UUID member(int group, int index) {
+        return new UUID(0x6A0DL + group, index);
+    }
+
+    /**
+     * Method to build a group config in the layout of group-permissions.yml. Group 0 is 'default' with the fewest permissions,
+     * every further group gets one more permission, like the default, staff and admin groups do.
+     * @param groups Number of groups
+     * @param membersPerGroup Number of members in every group
+     * @return The group config
+     */
+    static YamlConfiguration groupConfig(int groups, int membersPerGroup) {
+        YamlConfiguration config = new YamlConfiguration();
+        for (int group = 0; group < groups; group++) {
+            String path = "groups." + groupName(group);
+            int granted = Math.min(PERMISSIONS.size(), 5 + group);
+            config.set(path + ".default", group == 0);
+            config.set(path + ".permissions", new ArrayList<>(PERMISSIONS.subList(0, granted)));
+            List<String> members = new ArrayList<>(membersPerGroup);
+            for (int i = 0; i < membersPerGroup; i++) {
+                members.add(member(group, i).toString());
+            }
+            config.set(path + ".members", members);
+        }
+        return config;
+    }
+
+    static String groupName(int group) {
+        return group == 0 ? "default" : "group" + group;
+    }
+
+    /**
+     * Method to load the config.yml shipped in the plugin jar
+     * @return The default plugin config
+     */
+    static YamlConfiguration pluginConfig() {
+        InputStream stream = Fixtures.class.getClassLoader().getResourceAsStream("config.yml");
+        if (stream == null) {
+            throw new IllegalStateException("config.yml is not on the classpath, install the plugin before building the benchmarks");
+        }
+        try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+            return YamlConfiguration.loadConfiguration(reader);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Ticket[] tickets(int count) {
+        SplittableRandom random = new SplittableRandom(42L);
+        Ticket[] tickets = new Ticket[count];
+        TicketStatus[] statuses = TicketStatus.values();
+        for (int i = 0; i < count; i++) {
+            tickets[i] = new Ticket(i + 1, member(0, i), "player" + i, "My house was griefed near spawn, please help " + random.nextInt(1000),
+                    statuses[random.nextInt(statuses.length)], "world", random.nextDouble(-5000, 5000), 64, random.nextDouble(-5000, 5000),
+                    0F, 0F, 1_700_000_000_000L + random.nextInt(Integer.MAX_VALUE), null, null, 0L);
+        }
+        return tickets;
+    }
+}
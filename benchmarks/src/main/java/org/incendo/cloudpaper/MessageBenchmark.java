@@ -0,0 +1,80 @@
+package org.incendo.cloudpaper;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering a listed ticket and a static reply through the MessageCatalog, against parsing the template on every call
+ * the way TicketManager did before the catalog. Run with '-prof gc' to get the bytes allocated per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    private static final int TICKETS = 1024;
+
+    private MiniMessage miniMessage;
+    private MessageCatalog messages;
+    private String listedTicketTemplate;
+    private String staticTemplate;
+    private Ticket[] tickets;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Fixtures.quietLogger();
+        YamlConfiguration config = Fixtures.pluginConfig();
+        miniMessage = MiniMessage.miniMessage();
+        messages = MessageCatalog.load(config, miniMessage);
+        listedTicketTemplate = config.getString("listed-ticked");
+        staticTemplate = config.getString("ticket-created");
+        tickets = Fixtures.tickets(TICKETS);
+    }
+
+
+    @Benchmark
+    public Component listedTicketCompiled() {
+        Ticket ticket = tickets[next++ & (TICKETS - 1)];
+        return messages.render("listed-ticked", ticket.getDescription(), String.valueOf(ticket.getId()), ticket.getUsername(),
+                ticket.getFormattedDate(), ticket.getStatus().name());
+    }
+
+    @Benchmark
+    public Component listedTicketParsedPerCall() {
+        Ticket ticket = tickets[next++ & (TICKETS - 1)];
+        return miniMessage.deserialize(listedTicketTemplate,
+                Placeholder.parsed("description", ticket.getDescription()),
+                Placeholder.parsed("id", String.valueOf(ticket.getId())),
+                Placeholder.parsed("username", ticket.getUsername()),
+                Placeholder.parsed("formatteddate", ticket.getFormattedDate()),
+                Placeholder.parsed("status", ticket.getStatus().name()));
+    }
+
+    @Benchmark
+    public Component staticReplyCached() {
+        return messages.get("ticket-created");
+    }
+
+    @Benchmark
+    public Component staticReplyParsedPerCall() {
+        return miniMessage.deserialize(staticTemplate);
+    }
+}
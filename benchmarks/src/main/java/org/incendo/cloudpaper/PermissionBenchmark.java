@@ -0,0 +1,88 @@
+package org.incendo.cloudpaper;
+
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PermissonsManager.checkPermission against a synthetic group config, 10 groups of 50k members by default.
+ * Run with '-prof gc' to get the bytes allocated per check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class PermissionBenchmark {
+
+    // Players are picked from a fixed pool so the lookup is not dominated by building players
+    private static final int PLAYER_POOL = 4096;
+
+    @Param({"10"})
+    public int groups;
+
+    @Param({"50000"})
+    public int membersPerGroup;
+
+    private PermissonsManager permissonsManager;
+    private Player[] members;
+    private Player[] strangers;
+    private Player op;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Fixtures.quietLogger();
+        permissonsManager = new PermissonsManager(Fixtures.groupConfig(groups, membersPerGroup));
+        SplittableRandom random = new SplittableRandom(42L);
+        members = new Player[PLAYER_POOL];
+        strangers = new Player[PLAYER_POOL];
+        for (int i = 0; i < PLAYER_POOL; i++) {
+            UUID member = Fixtures.member(random.nextInt(groups), random.nextInt(membersPerGroup));
+            members[i] = Fixtures.player(member, "member" + i, false);
+            strangers[i] = Fixtures.player(new UUID(random.nextLong(), random.nextLong()), "stranger" + i, false);
+        }
+        op = Fixtures.player(UUID.randomUUID(), "op", true);
+    }
+
+
+    @Benchmark
+    public boolean memberGranted() {
+        return permissonsManager.checkPermission(members[next++ & (PLAYER_POOL - 1)], "ticket.create");
+    }
+
+    // Most members are in groups without ticket.group, the path every admin-only check takes
+    @Benchmark
+    public boolean memberDenied() {
+        return permissonsManager.checkPermission(members[next++ & (PLAYER_POOL - 1)], "ticket.group");
+    }
+
+    @Benchmark
+    public boolean notInAnyGroup() {
+        return permissonsManager.checkPermission(strangers[next++ & (PLAYER_POOL - 1)], "ticket.create");
+    }
+
+    @Benchmark
+    public boolean unknownPermission() {
+        return permissonsManager.checkPermission(members[next++ & (PLAYER_POOL - 1)], "ticket.unknown");
+    }
+
+    @Benchmark
+    public boolean operator() {
+        return permissonsManager.checkPermission(op, "ticket.group");
+    }
+}
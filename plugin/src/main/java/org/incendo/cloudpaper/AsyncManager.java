@@ -0,0 +1,130 @@
+package org.incendo.cloudpaper;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+import static org.incendo.cloudpaper.Plugin.LOGGER;
+
+public class AsyncManager {
+
+    private final Plugin plugin;
+    private final ThreadPoolExecutor ioExecutor;
+    private final Executor mainThreadExecutor;
+    private final ConcurrentHashMap<UUID, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final int maxInFlightPerPlayer;
+
+    public AsyncManager(Plugin plugin, FileConfiguration config) {
+        this.plugin = plugin;
+        int threads = Math.max(1, config.getInt("async-threads", 4));
+        int queueSize = Math.max(1, config.getInt("async-queue-size", 256));
+        this.maxInFlightPerPlayer = Math.max(1, config.getInt("async-max-in-flight-per-player", 2));
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "Ticket-IO-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // A bounded queue plus AbortPolicy gives us backpressure: when MySQL or Discord stall, new work is refused instead of piling up
+        this.ioExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        this.ioExecutor.allowCoreThreadTimeOut(true);
+        this.mainThreadExecutor = task -> {
+            if (Bukkit.isPrimaryThread()) {
+                task.run();
+            } else if (plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(plugin, task);
+            }
+        };
+    }
+
+
+    /**
+     * Method to reserve an in-flight command slot for a player
+     * @param playerUUID UUID of the player issuing the command
+     * @return True if the slot was reserved, false if the player is already at the in-flight limit
+     */
+    public boolean tryAcquire(UUID playerUUID) {
+        AtomicInteger counter = inFlight.computeIfAbsent(playerUUID, uuid -> new AtomicInteger());
+        if (counter.incrementAndGet() > maxInFlightPerPlayer) {
+            release(playerUUID);
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Method to release an in-flight command slot reserved with tryAcquire
+     * @param playerUUID UUID of the player whose command finished
+     */
+    public void release(UUID playerUUID) {
+        inFlight.computeIfPresent(playerUUID, (uuid, counter) -> counter.decrementAndGet() <= 0 ? null : counter);
+    }
+
+
+    /**
+     * Method to run a blocking task on the I/O executor
+     * @param task Task to run, usually database or webhook work
+     * @return Future completed with the task result, or exceptionally with a RejectedExecutionException when the queue is full
+     */
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, ioExecutor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+
+    /**
+     * Method to run a blocking task on the I/O executor without a result
+     * @param task Task to run
+     * @return Future completed once the task has run
+     */
+    public CompletableFuture<Void> runAsync(Runnable task) {
+        return supplyAsync(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+
+    /**
+     * Method to get an executor that runs tasks on the server main thread
+     * @return Executor to hop back to the main thread with, e.g. for sendMessage and teleport
+     */
+    public Executor mainThread() {
+        return mainThreadExecutor;
+    }
+
+
+    /**
+     * Method to stop accepting work and wait for queued tasks to finish
+     */
+    public void shutdown() {
+        ioExecutor.shutdown();
+        try {
+            if (!ioExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.log(Level.WARNING, "Timed out waiting for " + ioExecutor.getQueue().size() + " queued ticket tasks to finish");
+                ioExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            ioExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.incendo.cloudpaper;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.incendo.cloudpaper.Plugin.LOGGER;
+
+/**
+ * Token buckets per player and subcommand, configured in the rate-limits section of config.yml.
+ * Safe to use from any thread without locking. A player is forgotten once all of their buckets are full again,
+ * so memory only grows with the players who ran a command recently.
+ */
+public class CommandRateLimiter {
+
+    private static final String DEFAULT_LIMIT = "default";
+    // Expired players are swept by a timing wheel of one second slots, a full turn covers about a minute
+    private static final long TICK_MILLIS = 1000L;
+    private static final int WHEEL_SLOTS = 64;
+
+    private volatile Limits limits;
+    private final ConcurrentHashMap<UUID, PlayerBuckets> players = new ConcurrentHashMap<>();
+    @SuppressWarnings("unchecked")
+    private final Queue<UUID>[] wheel = new Queue[WHEEL_SLOTS];
+    private final AtomicLong sweptTick;
+
+    public CommandRateLimiter(FileConfiguration config, long now) {
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.sweptTick = new AtomicLong(now / TICK_MILLIS);
+        configure(config);
+    }
+
+
+    /**
+     * Method to read the limits from the config, buckets already in use keep their state
+     * @param config Config holding the rate-limits section
+     */
+    public void configure(FileConfiguration config) {
+        Map<String, Integer> indexes = new HashMap<>();
+        Map<String, long[]> limitsByName = new HashMap<>();
+        // Configs written before rate-limits existed only have the single cooldown between any two commands
+        int legacyCooldown = config.getInt("command-cooldown", 0);
+        ConfigurationSection section = config.getConfigurationSection("rate-limits");
+        if (!config.isSet("rate-limits") && legacyCooldown > 0) {
+            limitsByName.put(DEFAULT_LIMIT, new long[]{1, legacyCooldown * 1000L});
+            LOGGER.info("Using command-cooldown as the rate limit of every subcommand, add a rate-limits section to config.yml to limit them separately");
+        } else if (section != null) {
+            for (String subCommand : section.getKeys(false)) {
+                int capacity = section.getInt(subCommand + ".capacity", 1);
+                long intervalMillis = (long) (section.getDouble(subCommand + ".refill", 0) * 1000);
+                limitsByName.put(subCommand.toLowerCase(), new long[]{Math.max(0, capacity), Math.max(0L, intervalMillis)});
+            }
+        }
+        limitsByName.putIfAbsent(DEFAULT_LIMIT, new long[]{0, 0});
+        int[] capacities = new int[limitsByName.size()];
+        long[] intervals = new long[limitsByName.size()];
+        for (Map.Entry<String, long[]> entry : limitsByName.entrySet()) {
+            int index = indexes.size();
+            indexes.put(entry.getKey(), index);
+            capacities[index] = (int) entry.getValue()[0];
+            intervals[index] = entry.getValue()[1];
+        }
+        Limits previous = limits;
+        limits = new Limits(indexes, capacities, intervals);
+        if (previous != null && !previous.indexes.equals(indexes)) {
+            players.clear(); // Bucket slots are laid out by index, start everyone over rather than mix up subcommands
+        }
+    }
+
+    /**
+     * Method to take a token from the bucket of a subcommand
+     * @param playerUUID UUID of the player
+     * @param subCommand Subcommand being run, subcommands without their own limit share the default bucket
+     * @param now Current time in milliseconds
+     * @return 0 if the command may run, otherwise how many milliseconds until the next token is available
+     */
+    public long tryAcquire(UUID playerUUID, String subCommand, long now) {
+        sweep(now);
+        Limits limits = this.limits;
+        int index = limits.indexOf(subCommand.toLowerCase());
+        int capacity = limits.capacities[index];
+        long interval = limits.intervals[index];
+        if (capacity <= 0 || interval <= 0) {
+            return 0; // Unlimited
+        }
+        PlayerBuckets buckets = players.computeIfAbsent(playerUUID, uuid -> new PlayerBuckets(limits.capacities.length));
+        long wait = buckets.take(index, now, interval, capacity);
+        if (wait == 0) {
+            if (players.get(playerUUID) != buckets) {
+                players.putIfAbsent(playerUUID, buckets); // Swept between the lookup and the take, put it back so the token counts
+            }
+            schedule(playerUUID, buckets);
+        }
+        return wait;
+    }
+
+    public int size() {
+        return players.size();
+    }
+
+
+    private void schedule(UUID playerUUID, PlayerBuckets buckets) {
+        long tick = buckets.getFullAt() / TICK_MILLIS + 1;
+        if (buckets.reschedule(tick)) {
+            wheel[(int) (tick % WHEEL_SLOTS)].add(playerUUID);
+        }
+    }
+
+    /**
+     * Method to forget players whose buckets have all refilled, one slot of the wheel per elapsed tick.
+     * Only the thread that advances the wheel sweeps, everyone else returns right away.
+     * @param now Current time in milliseconds
+     */
+    private void sweep(long now) {
+        long tick = now / TICK_MILLIS;
+        long swept = sweptTick.get();
+        if (tick <= swept || !sweptTick.compareAndSet(swept, tick)) {
+            return;
+        }
+        // After a long pause every slot is due, a single turn of the wheel visits all of them
+        for (long t = Math.max(swept + 1, tick - WHEEL_SLOTS + 1); t <= tick; t++) {
+            Queue<UUID> slot = wheel[(int) (t % WHEEL_SLOTS)];
+            for (int pending = slot.size(); pending > 0; pending--) {
+                UUID playerUUID = slot.poll();
+                if (playerUUID == null) {
+                    break;
+                }
+                PlayerBuckets buckets = players.get(playerUUID);
+                if (buckets == null) {
+                    continue;
+                }
+                if (buckets.getFullAt() <= now) {
+                    players.remove(playerUUID, buckets);
+                    continue;
+                }
+                long due = buckets.getScheduledTick();
+                if (due <= t) {
+                    // Took a token without moving the tick it is queued for, look again once it has refilled
+                    long next = Math.max(buckets.getFullAt() / TICK_MILLIS + 1, tick + 1);
+                    buckets.forceSchedule(next);
+                    wheel[(int) (next % WHEEL_SLOTS)].add(playerUUID);
+                } else if ((due - t) % WHEEL_SLOTS == 0) {
+                    slot.add(playerUUID); // Due more than a turn of the wheel from now, keep it in this slot for the next turn
+                }
+                // Otherwise a later entry for this player is already queued in another slot
+            }
+        }
+    }
+
+
+    /**
+     * Limits of every configured subcommand, bucket slots are addressed by the same index
+     */
+    private static final class Limits {
+
+        private final Map<String, Integer> indexes;
+        private final int[] capacities;
+        private final long[] intervals;
+        private final int defaultIndex;
+
+        private Limits(Map<String, Integer> indexes, int[] capacities, long[] intervals) {
+            this.indexes = indexes;
+            this.capacities = capacities;
+            this.intervals = intervals;
+            this.defaultIndex = indexes.get(DEFAULT_LIMIT);
+        }
+
+        private int indexOf(String subCommand) {
+            Integer index = indexes.get(subCommand);
+            return index != null ? index : defaultIndex;
+        }
+    }
+
+    /**
+     * Buckets of one player. Each bucket is a single timestamp, the time at which it would be completely full again
+     * (the generic cell rate algorithm), so taking a token is one compare-and-set.
+     */
+    private static final class PlayerBuckets {
+
+        private final AtomicLongArray fullAt;
+        private final AtomicLong latestFullAt = new AtomicLong();
+        private volatile long scheduledTick;
+
+        private PlayerBuckets(int size) {
+            this.fullAt = new AtomicLongArray(size);
+        }
+
+        private long take(int index, long now, long interval, int capacity) {
+            while (true) {
+                long current = fullAt.get(index);
+                long next = Math.max(current, now) + interval;
+                long overdraft = next - now - interval * capacity;
+                if (overdraft > 0) {
+                    return overdraft; // Taking a token now would need more than capacity tokens
+                }
+                if (fullAt.compareAndSet(index, current, next)) {
+                    latestFullAt.accumulateAndGet(next, Math::max);
+                    return 0;
+                }
+            }
+        }
+
+        private long getFullAt() {
+            return latestFullAt.get();
+        }
+
+        private long getScheduledTick() {
+            return scheduledTick;
+        }
+
+        // Only queue the player again if they now expire after the tick they are already queued for
+        private boolean reschedule(long tick) {
+            if (tick <= scheduledTick) {
+                return false;
+            }
+            scheduledTick = tick;
+            return true;
+        }
+
+        private void forceSchedule(long tick) {
+            scheduledTick = tick;
+        }
+    }
+}
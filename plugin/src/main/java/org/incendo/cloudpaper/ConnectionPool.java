@@ -0,0 +1,277 @@
+package org.incendo.cloudpaper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import static org.incendo.cloudpaper.Plugin.LOGGER;
+
+public class ConnectionPool {
+
+    // Connections handed back within this window are trusted without another round trip to the server
+    private static final long VALIDATION_BYPASS_MILLIS = 500L;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final List<String> initStatements;
+    private final int statementCacheSize;
+    private final int maxSize;
+    private final int minIdle;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    /**
+     * Pool whose connections run some statements once when they are opened and keep their prepared statements between borrows
+     * @param initStatements Statements to run on every new connection before it is first handed out, e.g. SQLite pragmas
+     * @param statementCacheSize Prepared statements kept open per connection, 0 prepares every statement from scratch
+     */
+    public ConnectionPool(String url, String user, String password, List<String> initStatements, int statementCacheSize, int maxSize, int minIdle, long borrowTimeoutMillis, long idleTimeoutMillis, long leakThresholdMillis) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.initStatements = initStatements;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.maxSize = Math.max(1, maxSize);
+        this.minIdle = Math.max(0, Math.min(minIdle, this.maxSize));
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.permits = new Semaphore(this.maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Ticket-DB-Housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.housekeeper.scheduleWithFixedDelay(this::housekeep, 30, 30, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Method to open the minimum number of idle connections up front
+     * @throws SQLException If a connection could not be opened
+     */
+    public void fill() throws SQLException {
+        while (idle.size() < minIdle) {
+            idle.offerLast(new PooledConnection(open()));
+        }
+    }
+
+
+    /**
+     * Method to borrow a connection from the pool. Closing the returned connection hands it back to the pool.
+     * @return A validated connection
+     * @throws SQLException If the pool is closed, exhausted for longer than the borrow timeout, or a new connection fails
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool has been closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + borrowTimeoutMillis + "ms waiting for a database connection (" + borrowed.size() + "/" + maxSize + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (validate(pooled)) {
+                    break;
+                }
+                closeQuietly(pooled);
+            }
+            if (pooled == null) {
+                pooled = new PooledConnection(open());
+            }
+            pooled.lend(leakThresholdMillis > 0);
+            borrowed.add(pooled);
+            return pooled.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Method to close every idle connection and stop handing out new ones
+     */
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled);
+        }
+        if (!borrowed.isEmpty()) {
+            LOGGER.log(Level.WARNING, borrowed.size() + " database connection(s) were still borrowed when the pool closed");
+        }
+    }
+
+
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+
+    private Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, user, password);
+        if (initStatements.isEmpty()) {
+            return connection;
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : initStatements) {
+                statement.execute(sql);
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    private boolean validate(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastReturned < VALIDATION_BYPASS_MILLIS) {
+            return true;
+        }
+        try {
+            return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void giveBack(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        try {
+            boolean healthy = !closed && !pooled.connection.isClosed();
+            if (healthy && !pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback(); // Never leak a half-finished transaction to the next borrower
+                pooled.connection.setAutoCommit(true);
+            }
+            if (healthy) {
+                pooled.lastReturned = System.currentTimeMillis();
+                idle.offerFirst(pooled); // LIFO keeps the hottest connections in use and lets the rest age out
+            } else {
+                closeQuietly(pooled);
+            }
+        } catch (SQLException e) {
+            closeQuietly(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        // Evict from the tail, which holds the connections that have been idle the longest
+        Iterator<PooledConnection> iterator = idle.descendingIterator();
+        while (iterator.hasNext() && idle.size() > minIdle) {
+            PooledConnection pooled = iterator.next();
+            if (now - pooled.lastReturned > idleTimeoutMillis && idle.remove(pooled)) {
+                closeQuietly(pooled);
+            }
+        }
+        if (leakThresholdMillis > 0) {
+            for (PooledConnection pooled : borrowed) {
+                if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMillis) {
+                    pooled.leakReported = true;
+                    LOGGER.log(Level.WARNING, "Possible database connection leak, connection held for " + (now - pooled.borrowedAt) + "ms", pooled.borrowSite);
+                }
+            }
+        }
+    }
+
+    private void closeQuietly(PooledConnection pooled) {
+        if (pooled.statements != null) {
+            pooled.statements.close();
+        }
+        try {
+            pooled.connection.close();
+        } catch (SQLException ignored) {
+            // The connection is being thrown away anyway
+        }
+    }
+
+
+    private final class PooledConnection implements InvocationHandler {
+
+        private final Connection connection;
+        private final Connection proxy;
+        private final StatementCache statements;
+        private volatile long lastReturned = System.currentTimeMillis();
+        private volatile long borrowedAt;
+        private volatile Exception borrowSite;
+        private volatile boolean leakReported;
+        private volatile boolean lent;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = statementCacheSize > 0 ? new StatementCache(connection, statementCacheSize) : null;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+        }
+
+        private void lend(boolean recordBorrowSite) {
+            borrowedAt = System.currentTimeMillis();
+            borrowSite = recordBorrowSite ? new Exception("Connection borrowed here") : null;
+            leakReported = false;
+            lent = true;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (lent) {
+                    lent = false;
+                    giveBack(this);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return !lent || connection.isClosed();
+            }
+            if (!lent) {
+                throw new SQLException("This connection has already been returned to the pool");
+            }
+            if (statements != null && name.equals("prepareStatement") && args.length <= 2 && (args.length == 1 || args[1] instanceof Integer)) {
+                return statements.prepare((String) args[0], args.length == 2 ? (Integer) args[1] : Statement.NO_GENERATED_KEYS);
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -2,32 +2,130 @@ package org.incendo.cloudpaper;
 
 import org.bukkit.configuration.file.FileConfiguration;
 
+import java.io.File;
 import java.sql.*;
 import java.sql.Connection;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
-
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletionException;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 
 import static org.incendo.cloudpaper.Plugin.LOGGER;
 
 public class DatabaseManager {
 
-    private Connection connection;
+    private ConnectionPool pool;
+    // Every write goes through this pool. It is the same pool for MySQL and MariaDB, SQLite gets a single writer connection.
+    private ConnectionPool writePool;
+    private SqlDialect dialect = SqlDialect.MYSQL;
+    private final File dataFolder;
     private final FileConfiguration config;
+    private final TicketCache ticketCache;
+    // Replaced as a whole by reloadSearchIndex, so searches never see a half-loaded index
+    private volatile SearchIndex searchIndex = new SearchIndex();
+    // Identifies the changes this server made in ticket_events, so its feed can skip them
+    private final String nodeId;
+    private final boolean syncEnabled;
+    private final Metrics.Timer insertQuery;
+    private final Metrics.Timer updateQuery;
+    private final Metrics.Timer insertBatchQuery;
+    private final Metrics.Timer updateBatchQuery;
+    private final Metrics.Timer claimQuery;
+    private final Metrics.Timer closeQuery;
+    private final Metrics.Timer reopenQuery;
+    private final Metrics.Timer ticketQuery;
+    private final Metrics.Timer playerTicketsQuery;
+    private final Metrics.Timer allTicketsQuery;
+    private final Metrics.Timer openTicketsQuery;
+    private final Metrics.Timer ticketExistsQuery;
+    private final Metrics.Timer locationsQuery;
+    private final Metrics.Timer searchIndexQuery;
+    private final Metrics.Timer archiveQuery;
+    private final Metrics.Timer archivedTicketQuery;
+    private final Metrics.Timer publishEventQuery;
+    private final Metrics.Timer eventsQuery;
+    private final Metrics.Timer pruneEventsQuery;
 
-    public DatabaseManager(FileConfiguration config) {
+    public DatabaseManager(File dataFolder, FileConfiguration config, Metrics metrics) {
+        this.dataFolder = dataFolder;
         this.config = config;
+        this.insertQuery = queryTimer(metrics, "insert_ticket");
+        this.updateQuery = queryTimer(metrics, "update_ticket");
+        this.insertBatchQuery = queryTimer(metrics, "insert_tickets");
+        this.updateBatchQuery = queryTimer(metrics, "update_tickets");
+        this.claimQuery = queryTimer(metrics, "claim_ticket");
+        this.closeQuery = queryTimer(metrics, "close_ticket");
+        this.reopenQuery = queryTimer(metrics, "reopen_ticket");
+        this.ticketQuery = queryTimer(metrics, "get_ticket");
+        this.playerTicketsQuery = queryTimer(metrics, "get_player_tickets");
+        this.allTicketsQuery = queryTimer(metrics, "get_all_tickets");
+        this.openTicketsQuery = queryTimer(metrics, "get_open_tickets");
+        this.ticketExistsQuery = queryTimer(metrics, "ticket_exists");
+        this.locationsQuery = queryTimer(metrics, "get_open_ticket_locations");
+        this.searchIndexQuery = queryTimer(metrics, "load_search_index");
+        this.archiveQuery = queryTimer(metrics, "archive_tickets");
+        this.archivedTicketQuery = queryTimer(metrics, "get_archived_ticket");
+        this.publishEventQuery = queryTimer(metrics, "publish_ticket_event");
+        this.eventsQuery = queryTimer(metrics, "get_ticket_events");
+        this.pruneEventsQuery = queryTimer(metrics, "prune_ticket_events");
+        this.syncEnabled = config.getBoolean("sync-enabled", false);
+        String configuredNodeId = config.getString("sync-node-id", "");
+        // Without a configured ID every start counts as a new server, which is fine as events are only skipped for their own writer
+        this.nodeId = configuredNodeId == null || configuredNodeId.isEmpty() ? UUID.randomUUID().toString() : configuredNodeId;
+        this.ticketCache = new TicketCache(config.getInt("ticket-cache-size", 1000),
+                config.getLong("ticket-cache-ttl", 60L) * 1000L,
+                config.getLong("ticket-cache-negative-ttl", 10L) * 1000L);
+        metrics.gauge("ticket_cache_size", ticketCache::size);
+        metrics.gauge("ticket_search_index_size", () -> searchIndex.size());
+    }
+
+    private static Metrics.Timer queryTimer(Metrics metrics, String query) {
+        return metrics.timer("ticket_db_query_seconds", "query", query);
+    }
+
+    /**
+     * Method to borrow a connection from the pool. The caller must close it to hand it back.
+     * On SQLite the connection is read only, writes go through the single writer connection.
+     * @return A pooled connection
+     * @throws SQLException If no connection could be borrowed
+     */
+    public Connection getConnection() throws SQLException {
+        return pool.getConnection();
+    }
+
+    /**
+     * Method to borrow the connection writes go through, for bulk writes outside this class such as imports.
+     * On SQLite this is the single writer connection, so hold it only as long as needed.
+     * @return A pooled connection that may write
+     * @throws SQLException If no connection could be borrowed
+     */
+    public Connection getWriteConnection() throws SQLException {
+        return writePool.getConnection();
+    }
+
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    public TicketCache getTicketCache() {
+        return ticketCache;
+    }
+
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    public String getNodeId() {
+        return nodeId;
     }
 
-    public Connection getConnection() {
-        return this.connection;
+    public boolean isSyncEnabled() {
+        return syncEnabled;
     }
 
     // Method to connect to the database
@@ -37,6 +135,7 @@ public class DatabaseManager {
             LOGGER.log(Level.SEVERE, "database-type is not setup in the config file.");
             return;
         }
+        dialect = SqlDialect.fromDatabaseType(databaseType);
         try {
             if (databaseType.equalsIgnoreCase("mysql")) {
                 Class.forName("com.mysql.cj.jdbc.Driver");
@@ -53,16 +152,51 @@ public class DatabaseManager {
             String host = config.getString("database-host");
             String port = config.getString("database-port");
             String name = config.getString("database-name");
-            String url = "jdbc:mysql://" + host + ":" + port + "/" + name;
+            // Server side prepared statements, so the statement cache below saves the server parsing and planning each query
+            String url = "jdbc:mysql://" + host + ":" + port + "/" + name + "?useServerPrepStmts=true";
             if (databaseType.equalsIgnoreCase("mariadb")) {
-                url = "jdbc:mariadb://" + host + ":" + port + "/" + name;
+                url = "jdbc:mariadb://" + host + ":" + port + "/" + name + "?useServerPrepStmts=true";
             } else if (databaseType.equalsIgnoreCase("sqlite")) {
-                 url = "jdbc:sqlite://" + host + ":" + port + "/" + name;
+                if (!dataFolder.isDirectory() && !dataFolder.mkdirs()) {
+                    LOGGER.log(Level.SEVERE, "Could not create " + dataFolder + " for the SQLite database");
+                }
+                // An embedded database file in the plugin folder, host and port are not used
+                url = "jdbc:sqlite:" + new File(dataFolder, name + ".db").getAbsolutePath();
+            }
+            String urlOverride = config.getString("database-url", "");
+            if (urlOverride != null && !urlOverride.isEmpty()) {
+                url = urlOverride; // database-type still picks the SQL dialect
             }
             String user = config.getString("database-username"); // Database username
-            String password = config.getString("database-password");; // Database password
-            connection = DriverManager.getConnection(url, user, password); // Establish connection
-            LOGGER.info("Successfully connected to the database");
+            String password = config.getString("database-password"); // Database password
+            int poolSize = config.getInt("database-pool-size", 8);
+            int minIdle = config.getInt("database-pool-min-idle", 2);
+            long borrowTimeout = config.getLong("database-pool-timeout", 5000L);
+            long idleTimeout = config.getLong("database-pool-idle-timeout", 600L) * 1000L;
+            long leakThreshold = config.getLong("database-pool-leak-threshold", 0L) * 1000L;
+            int statementCacheSize = config.getInt("database-statement-cache-size", 64);
+            if (dialect == SqlDialect.SQLITE) {
+                // SQLite allows one writer at a time, so writes queue for a single connection in the plugin instead of
+                // failing with SQLITE_BUSY, while WAL lets any number of readers run next to that writer
+                long mmapSize = config.getLong("database-sqlite-mmap-size", 64L) * 1024L * 1024L;
+                List<String> pragmas = Arrays.asList(
+                        "PRAGMA busy_timeout = " + borrowTimeout,
+                        "PRAGMA synchronous = NORMAL", // With WAL this only gives up the last commits on a power loss, never consistency
+                        "PRAGMA mmap_size = " + mmapSize,
+                        "PRAGMA temp_store = MEMORY");
+                List<String> writerPragmas = new ArrayList<>(pragmas);
+                writerPragmas.add(0, "PRAGMA journal_mode = WAL"); // Stored in the file, so the readers pick it up too
+                List<String> readerPragmas = new ArrayList<>(pragmas);
+                readerPragmas.add("PRAGMA query_only = ON");
+                writePool = new ConnectionPool(url, user, password, writerPragmas, statementCacheSize, 1, 1, borrowTimeout, idleTimeout, leakThreshold);
+                writePool.fill(); // Switches the file to WAL before any reader opens it
+                pool = new ConnectionPool(url, user, password, readerPragmas, statementCacheSize, poolSize, minIdle, borrowTimeout, idleTimeout, leakThreshold);
+            } else {
+                pool = new ConnectionPool(url, user, password, Collections.emptyList(), statementCacheSize, poolSize, minIdle, borrowTimeout, idleTimeout, leakThreshold);
+                writePool = pool;
+            }
+            pool.fill(); // Open the idle connections now so a bad config fails at startup rather than on the first command
+            LOGGER.info("Successfully connected to the database (pool size " + poolSize + ")");
         } catch (SQLException e) {
             e.printStackTrace(); // Print stack trace if connection fails
         }
@@ -70,49 +204,45 @@ public class DatabaseManager {
 
     // Method to disconnect from the database
     public void disconnectFromDatabase() {
-        try {
-            if (connection != null && !connection.isClosed()) { // If connection is not null and is not closed
-                connection.close(); // Close the connection
-                LOGGER.info("Disconnected from the database."); // Log disconnection
+        if (pool != null) { // If the pool was created
+            pool.close(); // Close every pooled connection
+            if (writePool != pool) {
+                writePool.close();
             }
-        } catch (SQLException e) {
-            e.printStackTrace(); // Print stack trace if disconnection fails
+            LOGGER.info("Disconnected from the database."); // Log disconnection
         }
     }
 
-    // Method to create the 'tickets' table in the database if it doesn't exist
-    public void createTicketsTable() {
-        try (PreparedStatement statement = connection.prepareStatement(
-                "CREATE TABLE IF NOT EXISTS tickets (" +
-                        "ID INT PRIMARY KEY AUTO_INCREMENT NOT NULL," +
-                        "player_uuid VARCHAR(36) NOT NULL," +
-                        "username VARCHAR(45) NOT NULL," +
-                        "Description VARCHAR(255) NOT NULL," +
-                        "Status VARCHAR(45) NOT NULL," +
-                        "world VARCHAR(45) NOT NULL," +
-                        "x_coord DOUBLE NOT NULL," +
-                        "y_coord DOUBLE NOT NULL," +
-                        "z_coord DOUBLE NOT NULL," +
-                        "pitch DOUBLE NOT NULL," +
-                        "yaw DOUBLE NOT NULL," +
-                        "creation_time BIGINT NOT NULL" +
-                        ")"
-        )) {
-            statement.executeUpdate(); // Execute SQL statement to create the table
-            LOGGER.info("A table called 'tickets' was successfully created in the database");
+    /**
+     * Method to create or upgrade the database tables by applying any pending schema migrations
+     * @return True if the schema is at the latest version, false if the database could not be reached or a migration failed
+     */
+    public boolean migrateSchema() {
+        if (writePool == null) {
+            return false; // connectToDatabase already logged why
+        }
+        try (Connection connection = writePool.getConnection()) {
+            SchemaMigrator migrator = new SchemaMigrator(dialect);
+            if (!migrator.migrate(connection)) {
+                return false;
+            }
+            LOGGER.info("The database schema is up to date (version " + migrator.getLatestVersion() + ")");
+            return true;
         } catch (SQLException e) {
-            e.printStackTrace(); // Print stack trace if table creation fails
+            e.printStackTrace(); // Print stack trace if no connection could be borrowed for the migration
+            return false;
         }
     }
 
-    public int insertTicket(UUID playerUUID, String username, String description, String status, String world, double x, double y, double z, double pitch, double yaw, long creationTime) {
+    public int insertTicket(UUID playerUUID, String username, String description, TicketStatus status, String world, double x, double y, double z, double pitch, double yaw, long creationTime) {
         int ticketId = -1;
-        try (PreparedStatement preparedStatement = connection.prepareStatement(
+        long started = System.nanoTime();
+        try (Connection connection = writePool.getConnection(); PreparedStatement preparedStatement = connection.prepareStatement(
                 "INSERT INTO tickets (player_uuid, username, Description, Status, world, x_coord, y_coord, z_coord, pitch, yaw, creation_time) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS)){
-            preparedStatement.setString(1, playerUUID.toString());
+            preparedStatement.setBytes(1, UUIDConverter.toBytes(playerUUID));
             preparedStatement.setString(2, username);
             preparedStatement.setString(3, description);
-            preparedStatement.setString(4, status);
+            preparedStatement.setString(4, status.name());
             preparedStatement.setString(5, world);
             preparedStatement.setDouble(6, x);
             preparedStatement.setDouble(7, y);
@@ -120,176 +250,624 @@ public class DatabaseManager {
             preparedStatement.setDouble(9, pitch);
             preparedStatement.setDouble(10, yaw);
             preparedStatement.setLong(11, creationTime);
-            preparedStatement.executeUpdate(); // Execute SQL statement to insert the ticket
-            ResultSet generatedKeys = preparedStatement.getGeneratedKeys();
-            if (generatedKeys.next()) {
-                ticketId = generatedKeys.getInt(1);
+            connection.setAutoCommit(false); // The ticket and its event are committed together
+            try {
+                preparedStatement.executeUpdate(); // Execute SQL statement to insert the ticket
+                ResultSet generatedKeys = preparedStatement.getGeneratedKeys();
+                int generatedId = generatedKeys.next() ? generatedKeys.getInt(1) : -1;
+                if (generatedId > 0) {
+                    appendEvents(connection, TicketEvent.Type.CREATED, generatedId);
+                }
+                connection.commit();
+                ticketId = generatedId;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+            if (ticketId > 0) {
+                ticketCache.invalidate(ticketId); // The ID may have been looked up and cached as missing before it existed
+                searchIndex.add(ticketId, username, description);
             }
 
             LOGGER.info("A ticket with ID " + ticketId + " was successfully inserted into the database table.");
         } catch(SQLException e) {
+            insertQuery.error();
             e.printStackTrace(); // Print stack trace if ticket insertion fails
+        } finally {
+            insertQuery.record(started);
         }
         return ticketId;
     }
 
 
-    // Method to update an entry in the database table
-    public void updateTicket(int ticketId, String description, String status) {
-        try (PreparedStatement preparedStatement = connection.prepareStatement(
-                "UPDATE tickets SET Description = ?, Status = ? WHERE ID = ?")) {
+    // Method to update the description of an entry in the database table, status changes go through claimTicket, closeTicket and reopenTicket
+    public void updateTicket(int ticketId, String description) {
+        long started = System.nanoTime();
+        try (Connection connection = writePool.getConnection(); PreparedStatement preparedStatement = connection.prepareStatement(
+                "UPDATE tickets SET Description = ? WHERE ID = ?")) {
             preparedStatement.setString(1, description); // Set ticket description
-            preparedStatement.setString(2, status); // Set ticket status
-            preparedStatement.setString(3, String.valueOf(ticketId)); // Set ticket status
-            preparedStatement.executeUpdate(); // Execute SQL statement to update the ticket
+            preparedStatement.setInt(2, ticketId); // Set ticket ID, as an integer so the primary key index is used
+            connection.setAutoCommit(false);
+            try {
+                if (preparedStatement.executeUpdate() == 1) { // Execute SQL statement to update the ticket
+                    appendEvents(connection, TicketEvent.Type.UPDATED, ticketId);
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                ticketCache.invalidate(ticketId);
+            }
+            searchIndex.updateDescription(ticketId, description);
             LOGGER.info("Ticket with ID " + ticketId + " was successfully updated in the database.");
         } catch (SQLException e) {
+            updateQuery.error();
             e.printStackTrace(); // Print stack trace if ticket update fails
+        } finally {
+            updateQuery.record(started);
         }
     }
 
-    // Method to retrieve all information from a row in the database based on ID and player UUID
-    public HashMap<String, String> getTicketInfo(int ticketId) {
-        HashMap<String, String> ticketInfo = new HashMap<>(); // Create a HashMap to store ticket information
-        try (PreparedStatement preparedStatement = connection.prepareStatement(
-                "SELECT * FROM tickets WHERE ID = ?")) {
-            preparedStatement.setInt(1, ticketId); // Set ticket ID in the SQL query
-            ResultSet resultSet = preparedStatement.executeQuery(); // Execute SQL query
-            if (resultSet.next()) { // Check if a row is found
-                int id = resultSet.getInt("ID");
-                String description = resultSet.getString("Description");
-                String status = resultSet.getString("Status");
-                String player_uuid = resultSet.getString("player_uuid");
-                String world = resultSet.getString("world");
-                String x_coord = resultSet.getString("x_coord");
-                String y_coord = resultSet.getString("y_coord");
-                String z_coord = resultSet.getString("z_coord");
-                String pitch = resultSet.getString("pitch");
-                String yaw = resultSet.getString("yaw");
-                ticketInfo.put("ID", String.valueOf(id));
-                ticketInfo.put("Description", description);
-                ticketInfo.put("Status", status);
-                ticketInfo.put("player_uuid", player_uuid);
-                ticketInfo.put("world", world);
-                ticketInfo.put("x_coord", x_coord);
-                ticketInfo.put("y_coord", y_coord);
-                ticketInfo.put("z_coord", z_coord);
-                ticketInfo.put("pitch", pitch);
-                ticketInfo.put("yaw", yaw);
-            } else {
-                LOGGER.info("No ticket found with the specified ID and player UUID.");
+    /**
+     * Method to insert several tickets in one transaction
+     * @param tickets Tickets to insert, their IDs are ignored
+     * @return Generated ticket IDs, in the same order as the tickets
+     * @throws SQLException If the batch could not be written, in which case none of the tickets were inserted
+     */
+    public int[] insertTickets(List<Ticket> tickets) throws SQLException {
+        int[] ticketIds = new int[tickets.size()];
+        long started = System.nanoTime();
+        try (Connection connection = writePool.getConnection(); PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO tickets (player_uuid, username, Description, Status, world, x_coord, y_coord, z_coord, pitch, yaw, creation_time, closed_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            connection.setAutoCommit(false);
+            try {
+                // The SQLite driver only reports the last generated key of a batch, so it inserts row by row inside the transaction instead
+                boolean batchKeys = dialect.isMySqlFamily();
+                for (int i = 0; i < tickets.size(); i++) {
+                    Ticket ticket = tickets.get(i);
+                    preparedStatement.setBytes(1, UUIDConverter.toBytes(ticket.getPlayerUUID()));
+                    preparedStatement.setString(2, ticket.getUsername());
+                    preparedStatement.setString(3, ticket.getDescription());
+                    preparedStatement.setString(4, ticket.getStatus().name());
+                    preparedStatement.setString(5, ticket.getWorld());
+                    preparedStatement.setDouble(6, ticket.getX());
+                    preparedStatement.setDouble(7, ticket.getY());
+                    preparedStatement.setDouble(8, ticket.getZ());
+                    preparedStatement.setDouble(9, ticket.getPitch());
+                    preparedStatement.setDouble(10, ticket.getYaw());
+                    preparedStatement.setLong(11, ticket.getCreationTime());
+                    if (ticket.getClosedAt() > 0) {
+                        preparedStatement.setLong(12, ticket.getClosedAt());
+                    } else {
+                        preparedStatement.setNull(12, Types.BIGINT);
+                    }
+                    if (batchKeys) {
+                        preparedStatement.addBatch();
+                    } else {
+                        preparedStatement.executeUpdate();
+                        ResultSet generatedKeys = preparedStatement.getGeneratedKeys();
+                        ticketIds[i] = generatedKeys.next() ? generatedKeys.getInt(1) : -1;
+                    }
+                }
+                if (batchKeys) {
+                    preparedStatement.executeBatch();
+                    ResultSet generatedKeys = preparedStatement.getGeneratedKeys();
+                    for (int i = 0; i < ticketIds.length; i++) {
+                        ticketIds[i] = generatedKeys.next() ? generatedKeys.getInt(1) : -1;
+                    }
+                }
+                appendEvents(connection, TicketEvent.Type.CREATED, ticketIds);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            insertBatchQuery.error();
+            throw e;
+        } finally {
+            insertBatchQuery.record(started);
+        }
+        for (int i = 0; i < ticketIds.length; i++) {
+            ticketCache.invalidate(ticketIds[i]); // The ID may have been looked up and cached as missing before it existed
+            if (ticketIds[i] > 0) {
+                searchIndex.add(ticketIds[i], tickets.get(i).getUsername(), tickets.get(i).getDescription());
+            }
+        }
+        LOGGER.info(tickets.size() + " ticket(s) were successfully inserted into the database table.");
+        return ticketIds;
+    }
+
+
+    /**
+     * Method to apply several description updates in one batch
+     * @param updates Updates to apply, at most one per ticket ID
+     * @throws SQLException If the batch could not be written, in which case none of the updates were applied
+     */
+    public void updateTickets(Collection<TicketUpdate> updates) throws SQLException {
+        long started = System.nanoTime();
+        try (Connection connection = writePool.getConnection(); PreparedStatement preparedStatement = connection.prepareStatement(
+                "UPDATE tickets SET Description = ? WHERE ID = ?")) {
+            connection.setAutoCommit(false);
+            try {
+                for (TicketUpdate update : updates) {
+                    preparedStatement.setString(1, update.getDescription());
+                    preparedStatement.setInt(2, update.getTicketId());
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+                int[] ticketIds = new int[updates.size()];
+                int i = 0;
+                for (TicketUpdate update : updates) {
+                    ticketIds[i++] = update.getTicketId();
+                }
+                appendEvents(connection, TicketEvent.Type.UPDATED, ticketIds);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                for (TicketUpdate update : updates) {
+                    ticketCache.invalidate(update.getTicketId());
+                }
+            }
+        } catch (SQLException e) {
+            updateBatchQuery.error();
+            throw e;
+        } finally {
+            updateBatchQuery.record(started);
+        }
+        for (TicketUpdate update : updates) {
+            searchIndex.updateDescription(update.getTicketId(), update.getDescription());
+        }
+        LOGGER.info(updates.size() + " ticket(s) were successfully updated in the database.");
+    }
+
+    /**
+     * Method to claim an open ticket. Only one of several staff claiming the same ticket at once succeeds.
+     * @param ticketId ID of the ticket
+     * @param staffUUID UUID of the player claiming it
+     * @return True if the ticket was open and is now claimed, false if it does not exist or was not open
+     * @throws SQLException If the update failed
+     */
+    public boolean claimTicket(int ticketId, UUID staffUUID) throws SQLException {
+        return transition(claimQuery, TicketEvent.Type.CLAIMED, ticketId, "UPDATE tickets SET Status = 'CLAIMED', claimed_by = ? WHERE ID = ? AND Status = 'OPEN'", preparedStatement -> {
+            preparedStatement.setBytes(1, UUIDConverter.toBytes(staffUUID));
+            preparedStatement.setInt(2, ticketId);
+        });
+    }
+
+    /**
+     * Method to close a ticket that is not closed yet
+     * @param ticketId ID of the ticket
+     * @param closerUUID UUID of the player closing it
+     * @param ownerUUID Only close the ticket if it was created by this player, or null to close anyone's ticket
+     * @return True if the ticket was closed by this call, false if it does not exist, is already closed or is owned by someone else
+     * @throws SQLException If the update failed
+     */
+    public boolean closeTicket(int ticketId, UUID closerUUID, UUID ownerUUID) throws SQLException {
+        long closedAt = System.currentTimeMillis();
+        if (ownerUUID == null) {
+            return transition(closeQuery, TicketEvent.Type.CLOSED, ticketId, "UPDATE tickets SET Status = 'CLOSED', closed_by = ?, closed_at = ? WHERE ID = ? AND Status <> 'CLOSED'", preparedStatement -> {
+                preparedStatement.setBytes(1, UUIDConverter.toBytes(closerUUID));
+                preparedStatement.setLong(2, closedAt);
+                preparedStatement.setInt(3, ticketId);
+            });
+        }
+        return transition(closeQuery, TicketEvent.Type.CLOSED, ticketId, "UPDATE tickets SET Status = 'CLOSED', closed_by = ?, closed_at = ? WHERE ID = ? AND Status <> 'CLOSED' AND player_uuid = ?", preparedStatement -> {
+            preparedStatement.setBytes(1, UUIDConverter.toBytes(closerUUID));
+            preparedStatement.setLong(2, closedAt);
+            preparedStatement.setInt(3, ticketId);
+            preparedStatement.setBytes(4, UUIDConverter.toBytes(ownerUUID));
+        });
+    }
+
+    /**
+     * Method to reopen a claimed or closed ticket, clearing who claimed and closed it
+     * @param ticketId ID of the ticket
+     * @return True if the ticket was reopened by this call, false if it does not exist or is already open
+     * @throws SQLException If the update failed
+     */
+    public boolean reopenTicket(int ticketId) throws SQLException {
+        return transition(reopenQuery, TicketEvent.Type.REOPENED, ticketId, "UPDATE tickets SET Status = 'OPEN', claimed_by = NULL, closed_by = NULL, closed_at = NULL WHERE ID = ? AND Status <> 'OPEN'",
+                preparedStatement -> preparedStatement.setInt(1, ticketId));
+    }
+
+    /**
+     * Method to run a conditional status UPDATE, the WHERE clause makes the check and the write one atomic statement
+     * @param timer Timer of the transition
+     * @param type Event recorded in ticket_events if the row was updated
+     * @param ticketId ID of the ticket, its cache entry is dropped whatever the outcome
+     * @param sql UPDATE of the ticket
+     * @param binder Sets the parameters of the UPDATE
+     * @return True if the row was updated
+     */
+    private boolean transition(Metrics.Timer timer, TicketEvent.Type type, int ticketId, String sql, Binder binder) throws SQLException {
+        long started = System.nanoTime();
+        try (Connection connection = writePool.getConnection(); PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            binder.bind(preparedStatement);
+            connection.setAutoCommit(false);
+            try {
+                boolean updated = preparedStatement.executeUpdate() == 1;
+                if (updated) {
+                    appendEvents(connection, type, ticketId);
+                }
+                connection.commit();
+                return updated;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
         } catch (SQLException e) {
-            e.printStackTrace(); // Print stack trace if an error occurs
+            timer.error();
+            throw e;
+        } finally {
+            ticketCache.invalidate(ticketId);
+            timer.record(started);
+        }
+    }
+
+    /**
+     * Method to move tickets that have been closed for a while from tickets to tickets_archive, one batch per transaction
+     * @param closedBefore Move tickets closed before this time, in milliseconds since the epoch
+     * @param batchSize Number of tickets moved per transaction, keeps each transaction and its locks short
+     * @param stopped Checked before every batch, the run ends early once it returns true, e.g. when the plugin is disabled
+     * @return Number of tickets moved
+     * @throws SQLException If a batch could not be moved, the batches before it stay moved
+     */
+    public int archiveClosedTickets(long closedBefore, int batchSize, BooleanSupplier stopped) throws SQLException {
+        int moved = 0;
+        while (!stopped.getAsBoolean()) {
+            List<Integer> ticketIds = new ArrayList<>(batchSize);
+            long started = System.nanoTime();
+            try (Connection connection = writePool.getConnection();
+                 PreparedStatement select = connection.prepareStatement(
+                         "SELECT ID FROM tickets WHERE Status = 'CLOSED' AND closed_at < ? ORDER BY closed_at LIMIT ?" + dialect.lockRowsSuffix());
+                 PreparedStatement copy = connection.prepareStatement(
+                         "INSERT INTO tickets_archive (" + Ticket.ARCHIVE_COLUMNS + ", archived_at) SELECT " + Ticket.ARCHIVE_COLUMNS + ", ? FROM tickets WHERE ID = ?");
+                 PreparedStatement delete = connection.prepareStatement("DELETE FROM tickets WHERE ID = ?")) {
+                connection.setAutoCommit(false);
+                try {
+                    // The selected rows stay locked until the commit on MySQL, SQLite has no other writer, so none can be reopened halfway
+                    select.setLong(1, closedBefore);
+                    select.setInt(2, batchSize);
+                    try (ResultSet resultSet = select.executeQuery()) {
+                        while (resultSet.next()) {
+                            ticketIds.add(resultSet.getInt(1));
+                        }
+                    }
+                    long archivedAt = System.currentTimeMillis();
+                    for (int ticketId : ticketIds) {
+                        copy.setLong(1, archivedAt);
+                        copy.setInt(2, ticketId);
+                        copy.addBatch();
+                        delete.setInt(1, ticketId);
+                        delete.addBatch();
+                    }
+                    if (!ticketIds.isEmpty()) {
+                        copy.executeBatch();
+                        delete.executeBatch();
+                        appendEvents(connection, TicketEvent.Type.ARCHIVED, ticketIds.stream().mapToInt(Integer::intValue).toArray());
+                    }
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                archiveQuery.error();
+                throw e;
+            } finally {
+                archiveQuery.record(started);
+            }
+            for (int ticketId : ticketIds) {
+                ticketCache.invalidate(ticketId);
+                searchIndex.remove(ticketId); // Search covers the live table, archived tickets are looked up by ID
+            }
+            moved += ticketIds.size();
+            if (ticketIds.size() < batchSize) {
+                return moved;
+            }
+        }
+        return moved; // The rest is moved by the next run
+    }
+
+    /**
+     * Method to record a change made outside this class, such as an import, for the other servers to pick up
+     * @param type Type of the change
+     * @param ticketId ID of the changed ticket, 0 for RELOAD
+     * @throws SQLException If the event could not be written
+     */
+    public void publishEvent(TicketEvent.Type type, int ticketId) throws SQLException {
+        if (!syncEnabled) {
+            return;
+        }
+        long started = System.nanoTime();
+        try (Connection connection = writePool.getConnection()) {
+            appendEvents(connection, type, ticketId);
+        } catch (SQLException e) {
+            publishEventQuery.error();
+            throw e;
+        } finally {
+            publishEventQuery.record(started);
+        }
+    }
+
+    /**
+     * Method to read the change log in sequence order
+     * @param afterSequence Only read events after this sequence number
+     * @param limit Maximum number of events to read
+     * @return The events
+     * @throws CompletionException If the query failed
+     */
+    public List<TicketEvent> getEventsAfter(long afterSequence, int limit) {
+        return query(eventsQuery, "SELECT seq, ticket_id, event, node_id, created_at FROM ticket_events WHERE seq > ? ORDER BY seq LIMIT ?",
+                preparedStatement -> {
+                    preparedStatement.setLong(1, afterSequence);
+                    preparedStatement.setInt(2, limit);
+                },
+                resultSet -> new TicketEvent(resultSet.getLong(1), resultSet.getInt(2), TicketEvent.Type.fromColumn(resultSet.getString(3)),
+                        resultSet.getString(4), resultSet.getLong(5)));
+    }
+
+    /**
+     * Method to get the sequence number of the newest event
+     * @return The newest sequence number, 0 if the log is empty or -1 if the query failed
+     */
+    public long getLatestEventSequence() {
+        try {
+            return query(eventsQuery, "SELECT MAX(seq) FROM ticket_events", preparedStatement -> { }, resultSet -> resultSet.getLong(1)).get(0);
+        } catch (CompletionException e) {
+            LOGGER.log(Level.WARNING, "Could not read the newest ticket event", e.getCause());
+            return -1L;
+        }
+    }
+
+    /**
+     * Method to delete events every server has had time to read
+     * @param createdBefore Delete events written before this time, in milliseconds since the epoch
+     * @return Number of events deleted
+     * @throws SQLException If the delete failed
+     */
+    public int pruneEvents(long createdBefore) throws SQLException {
+        long started = System.nanoTime();
+        try (Connection connection = writePool.getConnection(); PreparedStatement preparedStatement = connection.prepareStatement(
+                "DELETE FROM ticket_events WHERE created_at < ?")) {
+            preparedStatement.setLong(1, createdBefore);
+            return preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            pruneEventsQuery.error();
+            throw e;
+        } finally {
+            pruneEventsQuery.record(started);
+        }
+    }
+
+    // Method to add events to the change log on the connection of the change, so they commit or roll back with it
+    private void appendEvents(Connection connection, TicketEvent.Type type, int... ticketIds) throws SQLException {
+        if (!syncEnabled || ticketIds.length == 0) {
+            return;
         }
-        return ticketInfo; // Return the HashMap containing ticket information
+        long createdAt = System.currentTimeMillis();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO ticket_events (ticket_id, event, node_id, created_at) VALUES (?, ?, ?, ?)")) {
+            for (int ticketId : ticketIds) {
+                preparedStatement.setInt(1, ticketId);
+                preparedStatement.setString(2, type.name());
+                preparedStatement.setString(3, nodeId);
+                preparedStatement.setLong(4, createdAt);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+    }
+
+    /**
+     * Method to read a ticket from the archive
+     * @param ticketId ID of the ticket
+     * @return The archived ticket, or null if no ticket with that ID has been archived
+     * @throws CompletionException If the query failed
+     */
+    public Ticket getArchivedTicket(int ticketId) {
+        List<Ticket> tickets = query(archivedTicketQuery, "SELECT " + Ticket.ARCHIVE_COLUMNS + " FROM tickets_archive WHERE ID = ?",
+                preparedStatement -> preparedStatement.setInt(1, ticketId), Ticket::fromRow);
+        return tickets.isEmpty() ? null : tickets.get(0);
+    }
+
+    /**
+     * Method to get a ticket through the ticket cache, only querying the database on a miss
+     * @param ticketId ID of the ticket
+     * @return The ticket, or null if no ticket has that ID
+     * @throws CompletionException If the query failed, nothing is cached then
+     */
+    public Ticket getTicket(int ticketId) {
+        return ticketCache.get(ticketId, this::getTicketInfo);
+    }
+
+    // Method to retrieve all information from a row in the database based on ID
+    public Ticket getTicketInfo(int ticketId) {
+        List<Ticket> tickets = query(ticketQuery, "SELECT " + Ticket.COLUMNS + " FROM tickets WHERE ID = ?",
+                preparedStatement -> preparedStatement.setInt(1, ticketId), Ticket::fromRow);
+        if (tickets.isEmpty()) {
+            LOGGER.info("No ticket found with the specified ID.");
+            return null; // Return null if the ticket doesn't exist, a failed query throws instead
+        }
+        return tickets.get(0);
     }
 
     // Method to retrieve player's tickets from the database
-    public List<HashMap<String, String>> getPlayerTickets(UUID playerUUID) {
-        List<HashMap<String, String>> tickets = new ArrayList<>();
-        try(PreparedStatement preparedStatement = connection.prepareStatement(
-                "SELECT * FROM tickets WHERE player_uuid = ?")){
-            preparedStatement.setString(1, playerUUID.toString()); // Set player UUID in the SQL query
-            ResultSet resultSet = preparedStatement.executeQuery(); // Execute SQL query
-            while (resultSet.next()) {
-                HashMap<String, String> ticket = new HashMap<>();
-                int id = resultSet.getInt("ID");
-                String description = resultSet.getString("Description");
-                String status = resultSet.getString("Status");
-                String player_uuid = resultSet.getString("player_uuid");
-                String username = resultSet.getString("username");
-                String world = resultSet.getString("world");
-                String x_coord = resultSet.getString("x_coord");
-                String y_coord = resultSet.getString("y_coord");
-                String z_coord = resultSet.getString("z_coord");
-                String pitch = resultSet.getString("pitch");
-                String yaw = resultSet.getString("yaw");
-                String creation_time = resultSet.getString("creation_time");
-                LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(creation_time)), ZoneId.systemDefault());
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-                String formattedDate = dateTime.format(formatter);
-                ticket.put("ID", String.valueOf(id));
-                ticket.put("Description", description);
-                ticket.put("Status", status);
-                ticket.put("player_uuid", player_uuid);
-                ticket.put("username", username);
-                ticket.put("world", world);
-                ticket.put("x_coord", x_coord);
-                ticket.put("y_coord", y_coord);
-                ticket.put("z_coord", z_coord);
-                ticket.put("pitch", pitch);
-                ticket.put("yaw", yaw);
-                ticket.put("creation_time", creation_time);
-                ticket.put("formattedDate", formattedDate);
-                tickets.add(ticket);
+    public List<Ticket> getPlayerTickets(UUID playerUUID) {
+        return query(playerTicketsQuery, "SELECT " + Ticket.COLUMNS + " FROM tickets WHERE player_uuid = ?",
+                preparedStatement -> preparedStatement.setBytes(1, UUIDConverter.toBytes(playerUUID)), Ticket::fromRow);
+    }
+
+
+    public List<Ticket> getAllTickets() {
+        return query(allTicketsQuery, "SELECT " + Ticket.COLUMNS + " FROM tickets", preparedStatement -> { }, Ticket::fromRow);
+    }
+
+
+    /**
+     * Method to retrieve a page of open tickets in ID order, using the ticket ID as a keyset cursor
+     * @param playerUUID Only return tickets created by this player, or null for every player
+     * @param afterId Return the tickets directly after this ID (0 for the first page)
+     * @param beforeId Return the tickets directly before this ID instead, or 0 to page forwards
+     * @param limit Maximum number of tickets to return
+     * @return Open tickets in ascending ID order
+     */
+    public List<Ticket> getOpenTickets(UUID playerUUID, int afterId, int beforeId, int limit) {
+        boolean backwards = beforeId > 0;
+        String sql = "SELECT " + Ticket.COLUMNS + " FROM tickets WHERE Status IN ('OPEN', 'CLAIMED')"
+                + (playerUUID != null ? " AND player_uuid = ?" : "")
+                + (backwards ? " AND ID < ? ORDER BY ID DESC" : " AND ID > ? ORDER BY ID ASC")
+                + " LIMIT ?";
+        List<Ticket> tickets = query(openTicketsQuery, sql, preparedStatement -> {
+            int index = 1;
+            if (playerUUID != null) {
+                preparedStatement.setBytes(index++, UUIDConverter.toBytes(playerUUID));
             }
-        } catch (SQLException e){
-            e.printStackTrace();
+            preparedStatement.setInt(index++, backwards ? beforeId : afterId);
+            preparedStatement.setInt(index, limit);
+        }, Ticket::fromRow);
+        if (backwards) {
+            Collections.reverse(tickets); // Pages are always shown in ascending order
         }
         return tickets;
     }
 
+    /**
+     * Method to retrieve a page of open tickets by position, for when a page number is typed without a cursor
+     * @param playerUUID Only return tickets created by this player, or null for every player
+     * @param offset Number of open tickets to skip
+     * @param limit Maximum number of tickets to return
+     * @return Open tickets in ascending ID order
+     */
+    public List<Ticket> getOpenTicketsAt(UUID playerUUID, int offset, int limit) {
+        String sql = "SELECT " + Ticket.COLUMNS + " FROM tickets WHERE Status IN ('OPEN', 'CLAIMED')"
+                + (playerUUID != null ? " AND player_uuid = ?" : "")
+                + " ORDER BY ID ASC LIMIT ? OFFSET ?";
+        return query(openTicketsQuery, sql, preparedStatement -> {
+            int index = 1;
+            if (playerUUID != null) {
+                preparedStatement.setBytes(index++, UUIDConverter.toBytes(playerUUID));
+            }
+            preparedStatement.setInt(index++, limit);
+            preparedStatement.setInt(index, offset);
+        }, Ticket::fromRow);
+    }
 
 
+    /**
+     * Method to read the location of every open or claimed ticket, row by row, without building a list of tickets
+     * @param visitor Called for every ticket
+     * @return True if every ticket was read, false if the query failed partway
+     */
+    public boolean forEachOpenTicketLocation(LocationVisitor visitor) {
+        long started = System.nanoTime();
+        try (Connection connection = pool.getConnection(); PreparedStatement preparedStatement = connection.prepareStatement(
+                "SELECT ID, world, x_coord, y_coord, z_coord FROM tickets WHERE Status IN ('OPEN', 'CLAIMED')")) {
+            preparedStatement.setFetchSize(dialect.streamingFetchSize());
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                visitor.visit(resultSet.getInt(1), resultSet.getString(2), resultSet.getDouble(3), resultSet.getDouble(4), resultSet.getDouble(5));
+            }
+            return true;
+        } catch (SQLException e) {
+            locationsQuery.error();
+            e.printStackTrace();
+            return false;
+        } finally {
+            locationsQuery.record(started);
+        }
+    }
 
-    public List<HashMap<String, String>> getAllTickets() {
-        List<HashMap<String, String>> tickets = new ArrayList<>();
-        try (PreparedStatement preparedStatement = connection.prepareStatement(
-                "SELECT * FROM tickets")) {
-            ResultSet resultSet = preparedStatement.executeQuery(); // Execute SQL query
-            while (resultSet.next()) { // Iterate through query results
-                HashMap<String, String> ticket = new HashMap<>();
-                int id = resultSet.getInt("ID");
-                String description = resultSet.getString("Description");
-                String status = resultSet.getString("Status");
-                String player_uuid = resultSet.getString("player_uuid");
-                String username = resultSet.getString("username");
-                String world = resultSet.getString("world");
-                String x_coord = resultSet.getString("x_coord");
-                String y_coord = resultSet.getString("y_coord");
-                String z_coord = resultSet.getString("z_coord");
-                String pitch = resultSet.getString("pitch");
-                String yaw = resultSet.getString("yaw");
-                String creation_time = resultSet.getString("creation_time");
-                LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(creation_time)), ZoneId.systemDefault());
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-                String formattedDate = dateTime.format(formatter);
-                ticket.put("ID", String.valueOf(id));
-                ticket.put("Description", description);
-                ticket.put("Status", status);
-                ticket.put("player_uuid", player_uuid);
-                ticket.put("username", username);
-                ticket.put("world", world);
-                ticket.put("x_coord", x_coord);
-                ticket.put("y_coord", y_coord);
-                ticket.put("z_coord", z_coord);
-                ticket.put("pitch", pitch);
-                ticket.put("yaw", yaw);
-                ticket.put("creation_time", creation_time);
-                ticket.put("formattedDate", formattedDate);
-                tickets.add(ticket);
+    /**
+     * Method to fill the search index with every ticket, streaming the rows so the table is never held in memory as tickets
+     */
+    public void loadSearchIndex() {
+        if (fillSearchIndex(searchIndex)) {
+            LOGGER.info("Indexed " + searchIndex.size() + " tickets for /ticket search");
+        }
+    }
+
+    /**
+     * Method to build a new search index in the calling thread and swap it in once it is complete.
+     * Searches keep using the old index until then, and keep it if the new one could not be loaded.
+     */
+    public void reloadSearchIndex() {
+        SearchIndex reloaded = new SearchIndex();
+        if (fillSearchIndex(reloaded)) {
+            searchIndex = reloaded;
+            LOGGER.info("Reindexed " + reloaded.size() + " tickets for /ticket search");
+        }
+    }
+
+    private boolean fillSearchIndex(SearchIndex index) {
+        long started = System.nanoTime();
+        try (Connection connection = pool.getConnection(); PreparedStatement preparedStatement = connection.prepareStatement(
+                "SELECT ID, username, Description FROM tickets")) {
+            preparedStatement.setFetchSize(dialect.streamingFetchSize());
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                index.add(resultSet.getInt(1), resultSet.getString(2), resultSet.getString(3));
             }
+            return true;
         } catch (SQLException e) {
-            e.printStackTrace(); // Print stack trace if ticket retrieval fails
+            searchIndexQuery.error();
+            e.printStackTrace();
+            return false;
+        } finally {
+            searchIndexQuery.record(started);
         }
-        return tickets; // Return the list of tickets
     }
-    
+
+    public interface LocationVisitor {
+        void visit(int ticketId, String world, double x, double y, double z);
+    }
+
 
     public boolean ticketExists(int ticketId) {
-        try (PreparedStatement preparedStatement = connection.prepareStatement(
-                "SELECT COUNT(*) FROM tickets WHERE ID = ?")) {
-            preparedStatement.setInt(1, ticketId); // Set ticket ID in the SQL query
-            ResultSet resultSet = preparedStatement.executeQuery(); // Execute SQL query
+        // Returns true if a row was found, false if the ticket doesn't exist
+        return !query(ticketExistsQuery, "SELECT 1 FROM tickets WHERE ID = ?",
+                preparedStatement -> preparedStatement.setInt(1, ticketId), resultSet -> Boolean.TRUE).isEmpty();
+    }
 
-            if (resultSet.next()) {
-                int count = resultSet.getInt(1); // Get the count of rows
-                return count > 0; // Return true if count is greater than 0, indicating the ticket exists
+
+    /**
+     * Method to run a query on a read connection and map every row it returns
+     * @param timer Timer of the query
+     * @param sql Query to run, prepared through the statement cache
+     * @param binder Sets the query parameters
+     * @param mapper Maps the current row, reading the columns by position
+     * @return Mapped rows in result order
+     * @throws CompletionException Wrapping the SQLException if the query failed, so a command future fails instead of
+     * treating a database error as no rows
+     */
+    private <T> List<T> query(Metrics.Timer timer, String sql, Binder binder, RowMapper<T> mapper) {
+        List<T> rows = new ArrayList<>();
+        long started = System.nanoTime();
+        try (Connection connection = pool.getConnection(); PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            binder.bind(preparedStatement);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    rows.add(mapper.map(resultSet));
+                }
             }
         } catch (SQLException e) {
-            e.printStackTrace(); // Print stack trace if ticket retrieval fails
+            timer.error();
+            throw new CompletionException(e); // Logged by whoever handles the failed future
+        } finally {
+            timer.record(started);
         }
-        return false; // Return false if an error occurs or the ticket doesn't exist
+        return rows;
+    }
+
+    public interface RowMapper<T> {
+        T map(ResultSet resultSet) throws SQLException;
+    }
+
+    private interface Binder {
+        void bind(PreparedStatement preparedStatement) throws SQLException;
     }
 }
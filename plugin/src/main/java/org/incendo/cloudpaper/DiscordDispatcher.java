@@ -0,0 +1,374 @@
+package org.incendo.cloudpaper;
+
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+
+import static org.incendo.cloudpaper.Plugin.LOGGER;
+
+/**
+ * Posts queued DiscordEvents to webhooks from a dedicated sender thread, honouring Discord rate limits,
+ * retrying failures with exponential backoff and spooling undelivered events to disk
+ */
+public class DiscordDispatcher {
+
+    private static final long MAX_BACKOFF_MILLIS = 60_000L;
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private final String webhookUrl;
+    private final File spoolFile;
+    private final BiConsumer<DiscordEvent, JsonWriter> encoder;
+    // Kept alive between posts, so each event reuses the pooled TLS connection instead of doing a new handshake
+    private final OkHttpClient client;
+    // Only touched by the sender thread, payloads are encoded into the same buffer every time
+    private final JsonWriter payload = new JsonWriter(2048);
+    private final RequestBody requestBody = new PayloadBody();
+    private final ArrayBlockingQueue<DiscordEvent> queue;
+    private final int maxAttempts;
+    private final int maxRateLimits;
+    private final long retryDelayMillis;
+    // Only touched by the sender thread
+    private final Map<String, RateLimitBucket> buckets = new HashMap<>();
+    private final Object spoolLock = new Object();
+    private final Metrics.Timer postTimer;
+    private final Metrics.Counter delivered;
+    private final Metrics.Counter rejected;
+    private final Metrics.Counter rateLimited;
+    private final Metrics.Counter spooled;
+    private Thread sender;
+    private volatile boolean running;
+
+    public DiscordDispatcher(String webhookUrl, File spoolFile, FileConfiguration config, Metrics metrics, BiConsumer<DiscordEvent, JsonWriter> encoder) {
+        this.webhookUrl = webhookUrl;
+        this.spoolFile = spoolFile;
+        this.encoder = encoder;
+        this.client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(2, config.getLong("discord-keep-alive", 300L), TimeUnit.SECONDS))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .readTimeout(10, TimeUnit.SECONDS)
+                .writeTimeout(10, TimeUnit.SECONDS)
+                .build();
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, config.getInt("discord-queue-size", 500)));
+        this.maxAttempts = Math.max(1, config.getInt("discord-max-attempts", 5));
+        this.maxRateLimits = Math.max(0, config.getInt("discord-max-rate-limits", 5));
+        this.retryDelayMillis = Math.max(1L, config.getLong("discord-retry-delay", 1000L));
+        this.postTimer = metrics.timer("ticket_discord_post_seconds", "webhook", "tickets");
+        this.delivered = metrics.counter("ticket_discord_events_total", "result", "delivered");
+        this.rejected = metrics.counter("ticket_discord_events_total", "result", "rejected");
+        this.rateLimited = metrics.counter("ticket_discord_events_total", "result", "rate_limited");
+        this.spooled = metrics.counter("ticket_discord_events_total", "result", "spooled");
+        metrics.gauge("ticket_discord_queue_size", queue::size);
+    }
+
+
+    /**
+     * Method to replay events spooled by a previous run and start the sender thread
+     */
+    public void start() {
+        replaySpool();
+        running = true;
+        sender = new Thread(this::run, "Ticket-Discord-Sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Method to queue an event for delivery without blocking
+     * @param event Event to post
+     * @return True if the event was queued, false if the queue was full and the event was spooled to disk instead
+     */
+    public boolean dispatch(DiscordEvent event) {
+        if (running && queue.offer(event)) {
+            return true;
+        }
+        LOGGER.log(Level.WARNING, "Discord queue is full, spooling " + event.getEvent() + " event for ticket " + event.getId() + " to disk");
+        spool(event);
+        return false;
+    }
+
+    /**
+     * Method to stop the sender thread and spool whatever has not been delivered yet
+     */
+    public void shutdown() {
+        running = false;
+        if (sender != null) {
+            sender.interrupt();
+            try {
+                sender.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<DiscordEvent> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (DiscordEvent event : remaining) {
+            spool(event);
+        }
+        if (!remaining.isEmpty()) {
+            LOGGER.info("Spooled " + remaining.size() + " undelivered Discord event(s), they will be sent after the next start");
+        }
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+
+    private void run() {
+        while (running) {
+            DiscordEvent event;
+            try {
+                event = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (event != null && !deliver(event)) {
+                spool(event);
+            }
+        }
+    }
+
+    /**
+     * Method to post one event, retrying until it is delivered, rejected for good, or out of attempts or rate limits
+     * @param event Event to post
+     * @return True if the event was delivered or permanently rejected, false if it should be spooled for later
+     */
+    private boolean deliver(DiscordEvent event) {
+        RateLimitBucket bucket = buckets.computeIfAbsent(webhookUrl, url -> new RateLimitBucket());
+        encoder.accept(event, payload.reset());
+        int attempt = 0;
+        int rateLimits = 0;
+        while (running) {
+            try {
+                bucket.awaitCapacity();
+                long started = System.nanoTime();
+                WebhookResponse response;
+                try {
+                    response = post();
+                } finally {
+                    postTimer.record(started);
+                }
+                bucket.update(response);
+                if (response.status >= 200 && response.status < 300) {
+                    LOGGER.info(event.getEvent() + " message sent to Discord successfully!");
+                    delivered.increment();
+                    return true;
+                }
+                postTimer.error();
+                if (response.status == 429) {
+                    rateLimited.increment();
+                    // A webhook that stays rate limited would otherwise hold up every event queued behind this one
+                    if (++rateLimits > maxRateLimits) {
+                        LOGGER.severe("Giving up on the " + event.getEvent() + " message after " + rateLimits + " rate limits, spooling it to disk");
+                        return false;
+                    }
+                    // Rate limited, Retry-After already pushed the bucket back so this does not use up an attempt
+                    LOGGER.log(Level.WARNING, "Discord rate limited the webhook, retrying in " + response.retryAfterMillis + "ms");
+                    continue;
+                }
+                if (response.status >= 400 && response.status < 500) {
+                    LOGGER.severe("Discord rejected the " + event.getEvent() + " message with HTTP " + response.status + ", dropping it");
+                    rejected.increment();
+                    return true;
+                }
+                LOGGER.log(Level.WARNING, "Discord returned HTTP " + response.status + " for the " + event.getEvent() + " message");
+            } catch (IOException e) {
+                postTimer.error();
+                LOGGER.log(Level.WARNING, "Failed to send message to Discord: " + e.getMessage());
+            } catch (InterruptedException e) {
+                return false;
+            }
+            if (++attempt >= maxAttempts) {
+                LOGGER.severe("Giving up on the " + event.getEvent() + " message after " + attempt + " attempts, spooling it to disk");
+                return false;
+            }
+            try {
+                Thread.sleep(backoff(attempt));
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private long backoff(int attempt) {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, retryDelayMillis << Math.min(attempt - 1, 16));
+        return delay + ThreadLocalRandom.current().nextLong(delay / 5 + 1); // Jitter so restarts do not retry in lockstep
+    }
+
+    private WebhookResponse post() throws IOException {
+        Request request = new Request.Builder()
+                .url(webhookUrl)
+                .header("User-Agent", "Java-DiscordWebhook-BY-Gelox_")
+                .post(requestBody)
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (body != null) {
+                body.close(); // Discarding the body hands the connection back to the pool
+            }
+            return new WebhookResponse(response.code(),
+                    response.header("X-RateLimit-Remaining"),
+                    response.header("X-RateLimit-Reset-After"),
+                    response.header("Retry-After"));
+        }
+    }
+
+
+    private void spool(DiscordEvent event) {
+        spooled.increment();
+        synchronized (spoolLock) {
+            try (BufferedWriter writer = Files.newBufferedWriter(spoolFile.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(event.toSpoolLine());
+                writer.newLine();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not spool a Discord event to " + spoolFile.getName() + ", it is lost", e);
+            }
+        }
+    }
+
+    private void replaySpool() {
+        List<DiscordEvent> events = new ArrayList<>();
+        synchronized (spoolLock) {
+            if (!spoolFile.exists()) {
+                return;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(spoolFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        events.add(DiscordEvent.fromSpoolLine(line));
+                    } catch (ParseException | ClassCastException e) {
+                        LOGGER.log(Level.WARNING, "Skipping a corrupt line in " + spoolFile.getName());
+                    }
+                }
+                Files.delete(spoolFile.toPath());
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not replay " + spoolFile.getName(), e);
+                return;
+            }
+        }
+        int queued = 0;
+        for (DiscordEvent event : events) {
+            if (queue.offer(event)) {
+                queued++;
+            } else {
+                spool(event); // Still more than the queue holds, keep the rest for the next start
+            }
+        }
+        if (!events.isEmpty()) {
+            LOGGER.info("Replaying " + queued + " spooled Discord event(s)");
+        }
+    }
+
+
+    /**
+     * Streams the payload buffer into the request without copying it, the sender thread does not touch the buffer until the call returns
+     */
+    private final class PayloadBody extends RequestBody {
+
+        @Override
+        public MediaType contentType() {
+            return JSON;
+        }
+
+        @Override
+        public long contentLength() {
+            return payload.size();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            sink.write(payload.buffer(), 0, payload.size());
+        }
+    }
+
+    private static final class WebhookResponse {
+
+        private final int status;
+        private final int remaining;
+        private final long resetAfterMillis;
+        private final long retryAfterMillis;
+
+        private WebhookResponse(int status, String remaining, String resetAfter, String retryAfter) {
+            this.status = status;
+            this.remaining = parseInt(remaining, -1);
+            this.resetAfterMillis = parseSeconds(resetAfter);
+            long retry = parseSeconds(retryAfter);
+            this.retryAfterMillis = status == 429 ? Math.max(retry, Math.max(resetAfterMillis, 1000L)) : retry;
+        }
+
+        private static int parseInt(String value, int fallback) {
+            try {
+                return value == null ? fallback : Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                return fallback;
+            }
+        }
+
+        // Discord sends fractional seconds, e.g. "0.527"
+        private static long parseSeconds(String value) {
+            try {
+                return value == null ? 0L : (long) Math.ceil(Double.parseDouble(value.trim()) * 1000D);
+            } catch (NumberFormatException e) {
+                return 0L;
+            }
+        }
+    }
+
+    /**
+     * Per-webhook rate limit state, following the X-RateLimit-* and Retry-After headers Discord returns
+     */
+    private static final class RateLimitBucket {
+
+        private long blockedUntil;
+
+        private void awaitCapacity() throws InterruptedException {
+            long wait = blockedUntil - System.currentTimeMillis();
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+        }
+
+        private void update(WebhookResponse response) {
+            long now = System.currentTimeMillis();
+            if (response.status == 429) {
+                blockedUntil = now + response.retryAfterMillis;
+            } else if (response.remaining == 0 && response.resetAfterMillis > 0) {
+                blockedUntil = now + response.resetAfterMillis;
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.incendo.cloudpaper;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * One ticket event waiting to be posted to the Discord webhook
+ */
+public final class DiscordEvent {
+
+    private final String event;
+    private final String id;
+    private final String userId;
+    private final String message;
+    private final String discordId;
+    private final long createdAt;
+
+    public DiscordEvent(String event, String id, String userId, String message, String discordId, long createdAt) {
+        this.event = event;
+        this.id = id;
+        this.userId = userId;
+        this.message = message;
+        this.discordId = discordId;
+        this.createdAt = createdAt;
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getDiscordId() {
+        return discordId;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+
+    /**
+     * Method to write the event as a single JSON line for the on-disk spool
+     * @return JSON object on one line
+     */
+    @SuppressWarnings("unchecked")
+    public String toSpoolLine() {
+        JSONObject json = new JSONObject();
+        json.put("event", event);
+        json.put("id", id);
+        json.put("userId", userId);
+        json.put("message", message);
+        json.put("discordId", discordId);
+        json.put("createdAt", createdAt);
+        return json.toJSONString();
+    }
+
+    /**
+     * Method to read an event back from a spool line
+     * @param line Line written by toSpoolLine
+     * @return The event
+     * @throws ParseException If the line is not valid JSON
+     */
+    public static DiscordEvent fromSpoolLine(String line) throws ParseException {
+        JSONObject json = (JSONObject) new JSONParser().parse(line);
+        Object createdAt = json.get("createdAt");
+        return new DiscordEvent((String) json.get("event"), (String) json.get("id"), (String) json.get("userId"),
+                (String) json.get("message"), (String) json.get("discordId"), createdAt instanceof Number ? ((Number) createdAt).longValue() : 0L);
+    }
+}
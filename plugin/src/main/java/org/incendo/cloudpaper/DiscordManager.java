@@ -1,53 +1,83 @@
 package org.incendo.cloudpaper;
 
 import org.bukkit.configuration.file.FileConfiguration;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONArray;
 
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-
-import static org.incendo.cloudpaper.Plugin.LOGGER;
+import java.io.File;
+import java.time.Instant;
 
 public class DiscordManager {
 
     private final String webhookUrl;
-    private final FileConfiguration config;
+    private final String username;
+    private final DiscordDispatcher dispatcher;
 
-    public DiscordManager(FileConfiguration config) {
-        this.config = config;
-        this.webhookUrl = this.config.getString("webhook");
+    public DiscordManager(File dataFolder, FileConfiguration config, Metrics metrics) {
+        this.webhookUrl = config.getString("webhook");
+        this.username = config.getString("discord-webhook-username");
+        this.dispatcher = new DiscordDispatcher(webhookUrl, new File(dataFolder, "discord-spool.jsonl"), config, metrics, this::writePayload);
+        this.dispatcher.start();
     }
 
+    /**
+     * Method to queue a ticket event for the Discord webhook. Never blocks, the post happens on the dispatcher thread.
+     * @param event Name of the event
+     * @param id Ticket ID
+     * @param userId UUID of the player
+     * @param message Ticket description
+     * @param discordId Discord ID to mention
+     */
     public void PostTicketToDiscord(String event, String id, String userId, String message, String discordId) {
-       try {
-           URL url = new URL(webhookUrl);
-           HttpURLConnection http = (HttpURLConnection) url.openConnection();
-           http.addRequestProperty("Content-Type", "application/json");
-           http.addRequestProperty("User-Agent", "Java-DiscordWebhook-BY-Gelox_");
-           http.setDoOutput(true);
-           http.setRequestMethod("POST");
-           String jsonInputString =
-                   "{\n\t\"event\": \"" + event + "\", \n" +
-                   "\t\"id\": \"" + id + "\", \n" +
-                   "\t\"user-uuid\": \"" + userId + "\", \n" +
-                   "\t\"message\": \"" + message + "\", \n" +
-                   "\t\"discord-id\": \"" + discordId + "\"\n}";
-           jsonInputString = jsonInputString.replace("\"", "\\\"").replace("\n", "\\n").replace("\t", "\\t");
-           String discordJson = "{\"content\": \"" + jsonInputString + "\", \"username\": \"" + config.getString("discord-webhook-username") + "\"}";
-
-           OutputStream stream = http.getOutputStream();
-           stream.write(discordJson.getBytes("UTF-8"));
-           stream.flush();
-           stream.close();
-
-           http.getInputStream().close(); // You can also check the HTTP response code here
-           http.disconnect();
-
-           LOGGER.info(event + " message sent to Discord successfully!");
-       } catch (Exception e) {
-           LOGGER.severe("Failed to send message to Discord: " + e.getMessage());
-       }
+        dispatcher.dispatch(new DiscordEvent(event, id, userId, message, discordId, System.currentTimeMillis()));
+    }
+
+    /**
+     * Method to stop posting and spool anything still queued, so it is sent after the next start
+     */
+    public void shutdown() {
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Method to write an event as a webhook message with a single embed
+     * @param event Event to write
+     * @param json Writer to encode into
+     */
+    private void writePayload(DiscordEvent event, JsonWriter json) {
+        json.beginObject();
+        json.name("username").value(username);
+        json.name("embeds").beginArray();
+        json.beginObject();
+        json.name("title").value(event.getEvent() + " - Ticket #" + event.getId());
+        json.name("description").value(event.getMessage());
+        json.name("color").value(colorOf(event.getEvent()));
+        json.name("timestamp").value(Instant.ofEpochMilli(event.getCreatedAt()).toString());
+        json.name("fields").beginArray();
+        writeField(json, "Event", event.getEvent());
+        writeField(json, "Ticket", event.getId());
+        writeField(json, "User", event.getUserId());
+        writeField(json, "Discord ID", event.getDiscordId());
+        json.endArray();
+        json.endObject();
+        json.endArray();
+        json.name("allowed_mentions").beginObject().name("parse").beginArray().endArray().endObject();
+        json.endObject();
+    }
+
+    private static void writeField(JsonWriter json, String name, String value) {
+        json.beginObject();
+        json.name("name").value(name);
+        json.name("value").value(value == null || value.isEmpty() ? "-" : value); // Discord rejects empty field values
+        json.name("inline").value(true);
+        json.endObject();
+    }
+
+    private static int colorOf(String event) {
+        switch (event) {
+            case "Create": return 0x57F287;
+            case "Claim": return 0x5865F2;
+            case "Reopen": return 0xFEE75C;
+            case "Close": return 0xED4245;
+            default: return 0x99AAB5;
+        }
     }
 }
@@ -0,0 +1,158 @@
+package org.incendo.cloudpaper;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextReplacementConfig;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
+import net.kyori.adventure.text.minimessage.tag.resolver.TagResolver;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import static org.incendo.cloudpaper.Plugin.LOGGER;
+
+/**
+ * Immutable snapshot of every message in config.yml, parsed once when the config is loaded.
+ * Static messages are kept as ready Components, messages with placeholders as compiled templates.
+ */
+public final class MessageCatalog {
+
+    // Placeholders each templated message accepts, in the order render() takes their values
+    private static final Map<String, String[]> PLACEHOLDERS = new HashMap<>();
+    // Placeholders are compiled into private use characters holding the value index, U+E000 index U+E001
+    private static final char MARKER_START = '\uE000';
+    private static final char MARKER_END = '\uE001';
+    private static final Pattern MARKER = Pattern.compile(MARKER_START + "(\\d+)" + MARKER_END);
+
+    static {
+        PLACEHOLDERS.put("command-cooldown-msg", new String[]{"cooldowntime"});
+        PLACEHOLDERS.put("group-updated", new String[]{"username", "groupname"});
+        PLACEHOLDERS.put("teleported-to-ticket", new String[]{"locationstring"});
+        PLACEHOLDERS.put("ticket-list-page", new String[]{"page"});
+        PLACEHOLDERS.put("listed-ticked", new String[]{"description", "id", "username", "formatteddate", "status"});
+        PLACEHOLDERS.put("ticket-near-head", new String[]{"radius"});
+        PLACEHOLDERS.put("ticket-near-none", new String[]{"radius"});
+        PLACEHOLDERS.put("ticket-near-entry", new String[]{"id", "distance", "username", "description"});
+        PLACEHOLDERS.put("ticket-search-head", new String[]{"query"});
+        PLACEHOLDERS.put("ticket-search-none", new String[]{"query"});
+        PLACEHOLDERS.put("ticket-search-entry", new String[]{"id", "username", "description"});
+        PLACEHOLDERS.put("ticket-history", new String[]{"id", "username", "status", "formatteddate", "claimedby", "closedby", "closeddate", "description"});
+        PLACEHOLDERS.put("ticket-notify-created", new String[]{"id", "username", "description"});
+        PLACEHOLDERS.put("transfer-exported", new String[]{"count", "file"});
+        PLACEHOLDERS.put("transfer-imported", new String[]{"inserted", "skipped", "file"});
+        PLACEHOLDERS.put("transfer-failed", new String[]{"error"});
+        PLACEHOLDERS.put("transfer-bad-file", new String[]{"file"});
+        PLACEHOLDERS.put("stats-line", new String[]{"name", "count", "errors", "p50", "p99", "max"});
+    }
+
+    private final MiniMessage miniMessage;
+    private final Map<String, Component> messages;
+    private final Map<String, Component> templates;
+    // Markup hard coded in the plugin, e.g. usage lines, parsed the first time it is sent
+    private final Map<String, Component> literals = new ConcurrentHashMap<>();
+
+    private MessageCatalog(MiniMessage miniMessage, Map<String, Component> messages, Map<String, Component> templates) {
+        this.miniMessage = miniMessage;
+        this.messages = messages;
+        this.templates = templates;
+    }
+
+
+    /**
+     * Method to parse every message in the config into a new catalog
+     * @param config Config to read the messages from, keys missing from it fall back to the defaults in the jar
+     * @param miniMessage MiniMessage instance to parse with
+     * @return The catalog
+     */
+    public static MessageCatalog load(FileConfiguration config, MiniMessage miniMessage) {
+        Set<String> keys = new LinkedHashSet<>(config.getKeys(false));
+        ConfigurationSection defaults = config.getDefaults();
+        if (defaults != null) {
+            keys.addAll(defaults.getKeys(false));
+        }
+        Map<String, Component> messages = new HashMap<>();
+        Map<String, Component> templates = new HashMap<>();
+        for (String key : keys) {
+            if (!config.isString(key)) {
+                continue;
+            }
+            String markup = config.getString(key);
+            String[] placeholders = PLACEHOLDERS.get(key);
+            try {
+                if (placeholders == null) {
+                    messages.put(key, miniMessage.deserialize(markup));
+                } else {
+                    templates.put(key, compile(miniMessage, markup, placeholders));
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warning("Could not parse the message '" + key + "' in config.yml: " + e.getMessage());
+            }
+        }
+        return new MessageCatalog(miniMessage, Collections.unmodifiableMap(messages), Collections.unmodifiableMap(templates));
+    }
+
+    private static Component compile(MiniMessage miniMessage, String markup, String[] placeholders) {
+        TagResolver[] resolvers = new TagResolver[placeholders.length];
+        for (int i = 0; i < placeholders.length; i++) {
+            resolvers[i] = Placeholder.component(placeholders[i], Component.text(MARKER_START + String.valueOf(i) + MARKER_END));
+        }
+        return miniMessage.deserialize(markup, resolvers);
+    }
+
+
+    /**
+     * Method to get a message without placeholders
+     * @param key Key of the message in config.yml
+     * @return The parsed message
+     */
+    public Component get(String key) {
+        Component message = messages.get(key);
+        return message != null ? message : missing(key);
+    }
+
+    /**
+     * Method to render a templated message. Values are inserted as plain text, so player input is never parsed as markup.
+     * @param key Key of the message in config.yml
+     * @param values Values for the placeholders, in the order they are listed in PLACEHOLDERS
+     * @return The rendered message
+     */
+    public Component render(String key, String... values) {
+        Component template = templates.get(key);
+        if (template == null) {
+            return missing(key);
+        }
+        // replaceText also walks show_text hover values, so placeholders inside hovers are filled in too
+        return template.replaceText(TextReplacementConfig.builder()
+                .match(MARKER)
+                .replacement((match, builder) -> {
+                    int index = Integer.parseInt(match.group(1));
+                    return Component.text(index < values.length && values[index] != null ? values[index] : "");
+                })
+                .build());
+    }
+
+    /**
+     * Method to get hard coded markup, parsed once and then reused
+     * @param markup MiniMessage markup
+     * @return The parsed markup
+     */
+    public Component literal(String markup) {
+        return literals.computeIfAbsent(markup, miniMessage::deserialize);
+    }
+
+    public int size() {
+        return messages.size() + templates.size();
+    }
+
+    private Component missing(String key) {
+        LOGGER.warning("Missing message '" + key + "' in config.yml");
+        return Component.text(key);
+    }
+}
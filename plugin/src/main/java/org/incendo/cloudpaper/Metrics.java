@@ -0,0 +1,232 @@
+package org.incendo.cloudpaper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the plugin's timers, counters and gauges. Recording never locks, so instrumented code can call it on any thread.
+ * Everything is cumulative since the plugin was enabled, like Prometheus expects.
+ */
+public final class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    // Sorted by name, so timers of one metric family are written next to each other
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+
+
+    /**
+     * Method to get a latency timer, creating it on first use. Callers should keep the timer rather than look it up per call.
+     * @param name Metric family, e.g. 'ticket_db_query_seconds'
+     * @param label Label name, e.g. 'query'
+     * @param value Label value, e.g. 'insert_ticket'
+     * @return The timer
+     */
+    public Timer timer(String name, String label, String value) {
+        return timers.computeIfAbsent(key(name, label, value), key -> new Timer(name, label, value));
+    }
+
+    /**
+     * Method to get a counter, creating it on first use
+     * @param name Metric name, e.g. 'ticket_discord_posts_total'
+     * @param label Label name, e.g. 'result'
+     * @param value Label value, e.g. 'delivered'
+     * @return The counter
+     */
+    public Counter counter(String name, String label, String value) {
+        return counters.computeIfAbsent(key(name, label, value), key -> new Counter(name, label, value));
+    }
+
+    /**
+     * Method to register a gauge, read whenever metrics are written
+     * @param name Metric name, e.g. 'ticket_discord_queue_size'
+     * @param supplier Supplies the current value
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, new Gauge(name, supplier));
+    }
+
+    public List<Timer> getTimers() {
+        return Collections.unmodifiableList(new ArrayList<>(timers.values()));
+    }
+
+    private static String key(String name, String label, String value) {
+        return name + '{' + label + '=' + value + '}';
+    }
+
+
+    /**
+     * Method to write every metric in the Prometheus text exposition format
+     * @param out Writer to write to
+     * @throws IOException If writing failed
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        String family = null;
+        for (Timer timer : timers.values()) {
+            if (!timer.name.equals(family)) {
+                family = timer.name;
+                out.write("# TYPE " + family + " summary\n");
+            }
+            LatencyHistogram histogram = timer.histogram;
+            String labels = timer.label + "=\"" + timer.value + '"';
+            for (double quantile : QUANTILES) {
+                out.write(family + '{' + labels + ",quantile=\"" + quantile + "\"} " + seconds(histogram.getQuantile(quantile)) + '\n');
+            }
+            out.write(family + "_sum{" + labels + "} " + seconds(histogram.getSum()) + '\n');
+            out.write(family + "_count{" + labels + "} " + histogram.getCount() + '\n');
+        }
+        family = null;
+        for (Timer timer : timers.values()) {
+            String errors = timer.name.replace("_seconds", "_errors_total");
+            if (!errors.equals(family)) {
+                family = errors;
+                out.write("# TYPE " + family + " counter\n");
+            }
+            out.write(family + '{' + timer.label + "=\"" + timer.value + "\"} " + timer.getErrors() + '\n');
+        }
+        family = null;
+        for (Counter counter : counters.values()) {
+            if (!counter.name.equals(family)) {
+                family = counter.name;
+                out.write("# TYPE " + family + " counter\n");
+            }
+            out.write(family + '{' + counter.label + "=\"" + counter.value + "\"} " + counter.get() + '\n');
+        }
+        for (Gauge gauge : gauges.values()) {
+            out.write("# TYPE " + gauge.name + " gauge\n");
+            out.write(gauge.name + ' ' + gauge.supplier.getAsLong() + '\n');
+        }
+    }
+
+    /**
+     * Method to write every metric to a file, replacing it in one step so a scraper never reads a half written file
+     * @param file File to write, e.g. in the node exporter's textfile collector directory
+     * @throws IOException If the file could not be written
+     */
+    public void writePrometheus(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        // The node exporter ignores files not ending in .prom, so the temporary file is never picked up
+        File temporary = new File(directory, file.getName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temporary.toPath(), StandardCharsets.UTF_8)) {
+            writePrometheus(out);
+        }
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+
+    /**
+     * Latency histogram plus an error count for one labelled operation
+     */
+    public static final class Timer {
+
+        private final String name;
+        private final String label;
+        private final String value;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        private Timer(String name, String label, String value) {
+            this.name = name;
+            this.label = label;
+            this.value = value;
+        }
+
+        /**
+         * Method to record the time since a System.nanoTime() reading
+         * @param startNanos Reading taken when the operation started
+         */
+        public void record(long startNanos) {
+            histogram.record(System.nanoTime() - startNanos);
+        }
+
+        // Method to count a failed operation, the time is still recorded separately through record()
+        public void error() {
+            errors.increment();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        /**
+         * Method to get a quantile in milliseconds, for showing in chat
+         * @param quantile Quantile between 0 and 1
+         * @return The quantile in milliseconds
+         */
+        public double getQuantileMillis(double quantile) {
+            return histogram.getQuantile(quantile) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+
+    public static final class Counter {
+
+        private final String name;
+        private final String label;
+        private final String value;
+        private final LongAdder count = new LongAdder();
+
+        private Counter(String name, String label, String value) {
+            this.name = name;
+            this.label = label;
+            this.value = value;
+        }
+
+        public void increment() {
+            count.increment();
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    private static final class Gauge {
+
+        private final String name;
+        private final LongSupplier supplier;
+
+        private Gauge(String name, LongSupplier supplier) {
+            this.name = name;
+            this.supplier = supplier;
+        }
+    }
+}
@@ -7,12 +7,27 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.scheduler.BukkitTask;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 
 import static org.incendo.cloudpaper.Plugin.LOGGER;
@@ -21,69 +36,254 @@ public class PermissonsManager implements Listener {
 
     private File groupConfigFile;
     private FileConfiguration groupConfig;
+    // Every permission named in group-permissions.yml gets a small integer ID, which is its bit in the sets below
+    private final Map<String, Integer> permissionIds = new HashMap<>();
+    private final Map<String, BitSet> groupPermissions = new HashMap<>();
+    private final Map<UUID, Set<String>> memberships = new ConcurrentHashMap<>();
+    private final Map<UUID, BitSet> playerPermissions = new ConcurrentHashMap<>();
+    // Shared sets for players without groups and for ops, who have every permission
+    private final BitSet noPermissions = new BitSet();
+    private volatile BitSet allPermissions = new BitSet();
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+    // Member lists are the source of truth between saves, groups whose list changed are copied into savedMembers when it is saved
+    private final Map<String, Set<String>> groupMembers = new HashMap<>();
+    private final Set<String> dirtyGroups = new HashSet<>();
+    // Unmodifiable copy of every member list as of the last snapshot, main thread only
+    private final Map<String, List<String>> savedMembers = new HashMap<>();
+    private final Plugin plugin;
+    private final Object writeLock = new Object();
+    // Document written to group-permissions.yml, guarded by writeLock so it is only built and serialized off the main thread
+    private final FileConfiguration savedConfig;
+    private long snapshotVersion;
+    private long writtenVersion;
+    private BukkitTask saveTask;
 
     public PermissonsManager(Plugin plugin) {
+        this.plugin = plugin;
         groupConfigFile = new File(plugin.getDataFolder(), "group-permissions.yml");
         if (!groupConfigFile.exists()) {
             plugin.saveResource("group-permissions.yml", false);
         }
         groupConfig = YamlConfiguration.loadConfiguration(groupConfigFile);
+        savedConfig = YamlConfiguration.loadConfiguration(groupConfigFile);
+        buildIndex();
         Bukkit.getPluginManager().registerEvents(this, plugin);
+        long saveInterval = Math.max(1L, plugin.getConfig().getLong("group-save-interval", 5L)) * 20L;
+        saveTask = Bukkit.getScheduler().runTaskTimer(plugin, this::saveIfDirty, saveInterval, saveInterval);
+    }
+
+    /**
+     * Method to index an already loaded group config without a running server.
+     * Nothing is registered or saved, used by the benchmarks.
+     * @param groupConfig Group config to index
+     */
+    PermissonsManager(FileConfiguration groupConfig) {
+        this.plugin = null;
+        this.groupConfig = groupConfig;
+        this.savedConfig = null;
+        buildIndex();
     }
 
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
         UUID playerUUID = event.getPlayer().getUniqueId();
+        if (memberships.containsKey(playerUUID)) {
+            return;
+        }
+        addPlayerToGroup(playerUUID, "default");
+    }
+
+
+    /**
+     * Method to build the permission index from the group config
+     */
+    private void buildIndex() {
+        permissionIds.clear();
+        groupPermissions.clear();
+        memberships.clear();
+        playerPermissions.clear();
         for (String groupName : groupConfig.getConfigurationSection("groups").getKeys(false)) {
-            List<String> members = groupConfig.getStringList("groups." + groupName + ".members");
-            if (members.contains(playerUUID.toString())) {
-                return;
+            BitSet permissions = new BitSet();
+            for (String permission : groupConfig.getStringList("groups." + groupName + ".permissions")) {
+                Integer id = permissionIds.get(permission);
+                if (id == null) {
+                    id = permissionIds.size();
+                    permissionIds.put(permission, id);
+                }
+                permissions.set(id);
             }
+            groupPermissions.put(groupName, permissions);
+        }
+        BitSet all = new BitSet();
+        all.set(0, permissionIds.size());
+        allPermissions = all;
+        groupMembers.clear();
+        dirtyGroups.clear();
+        savedMembers.clear();
+        for (String groupName : groupPermissions.keySet()) {
+            Set<String> members = new LinkedHashSet<>(groupConfig.getStringList("groups." + groupName + ".members"));
+            groupMembers.put(groupName, members);
+            savedMembers.put(groupName, Collections.unmodifiableList(new ArrayList<>(members)));
+            for (String member : members) {
+                try {
+                    memberships.computeIfAbsent(UUID.fromString(member), uuid -> new HashSet<>()).add(groupName);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.log(Level.WARNING, "Ignoring invalid UUID '" + member + "' in group '" + groupName + "'");
+                }
+            }
+        }
+        for (UUID playerUUID : memberships.keySet()) {
+            resolvePermissions(playerUUID);
+        }
+    }
+
+    /**
+     * Method to recompute the permission set of one player from their groups
+     * @param playerUUID UUID of the player
+     */
+    private void resolvePermissions(UUID playerUUID) {
+        Set<String> groups = memberships.get(playerUUID);
+        if (groups == null || groups.isEmpty()) {
+            memberships.remove(playerUUID);
+            playerPermissions.remove(playerUUID);
+            return;
+        }
+        BitSet permissions = new BitSet();
+        for (String groupName : groups) {
+            BitSet groupSet = groupPermissions.get(groupName);
+            if (groupSet != null) {
+                permissions.or(groupSet);
+            }
+        }
+        // Published sets are never modified again, so readers on other threads always see a complete set
+        playerPermissions.put(playerUUID, permissions);
+    }
+
+    /**
+     * Method to register a callback run on the main thread whenever a player's groups change
+     * @param listener Callback to run
+     */
+    public void onPermissionsChanged(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+    private void firePermissionsChanged() {
+        for (Runnable listener : changeListeners) {
+            listener.run();
         }
-        addPlayerToGroup(playerUUID, "default");
     }
 
 
     public FileConfiguration getGroupConfig() {
+        syncMembers();
         return groupConfig;
     }
 
+    /**
+     * Method to save group-permissions.yml right away on the calling thread, used when the plugin is disabled
+     */
     public void save() {
-        try {
-            groupConfig.save(groupConfigFile);
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Error when trying to save the group-permissions.yml");
+        if (saveTask != null) {
+            saveTask.cancel();
+            saveTask = null;
         }
+        write(snapshot());
+    }
+
+    /**
+     * Method to save group-permissions.yml in the background if anything changed since the last save.
+     * Runs on the main thread every group-save-interval seconds, so a burst of changes costs one write.
+     */
+    private void saveIfDirty() {
+        if (dirtyGroups.isEmpty()) {
+            return;
+        }
+        Snapshot snapshot = snapshot();
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> write(snapshot));
+    }
+
+    // Must be called on the main thread, the only thread that changes memberships.
+    // Only the changed member lists are copied here, building and serializing the YAML is left to write.
+    private Snapshot snapshot() {
+        for (String groupName : dirtyGroups) {
+            Set<String> members = groupMembers.get(groupName);
+            savedMembers.put(groupName, members == null ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<>(members)));
+        }
+        dirtyGroups.clear();
+        // Every snapshot holds all groups, so skipping one that is older than the last write loses nothing
+        return new Snapshot(++snapshotVersion, new HashMap<>(savedMembers));
+    }
+
+    private void syncMembers() {
+        for (Map.Entry<String, Set<String>> entry : groupMembers.entrySet()) {
+            groupConfig.set("groups." + entry.getKey() + ".members", new ArrayList<>(entry.getValue()));
+        }
+    }
+
+    private void write(Snapshot snapshot) {
+        synchronized (writeLock) {
+            if (snapshot.version <= writtenVersion) {
+                return; // A newer snapshot has already been written
+            }
+            // Write to a temporary file first and swap it in, so a crash mid-write never leaves a truncated file behind
+            for (Map.Entry<String, List<String>> entry : snapshot.members.entrySet()) {
+                savedConfig.set("groups." + entry.getKey() + ".members", entry.getValue());
+            }
+            Path target = groupConfigFile.toPath();
+            Path temp = target.resolveSibling(groupConfigFile.getName() + ".tmp");
+            try {
+                Files.write(temp, savedConfig.saveToString().getBytes(StandardCharsets.UTF_8));
+                try {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                writtenVersion = snapshot.version;
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error when trying to save the group-permissions.yml", e);
+            }
+        }
+    }
+
+    private void markDirty(String groupName, String member, boolean add) {
+        Set<String> members = groupMembers.computeIfAbsent(groupName, name -> new LinkedHashSet<>());
+        if (add) {
+            members.add(member);
+        } else {
+            members.remove(member);
+        }
+        dirtyGroups.add(groupName);
     }
 
 
     public void addPlayerToGroup(UUID playerUUID, String groupName) {
-        List<String> members = groupConfig.getStringList("groups." + groupName + ".members");
-        if (!members.contains(playerUUID.toString())) {
-            members.add(playerUUID.toString());
-            groupConfig.set("groups." + groupName + ".members", members);
-            save();
+        Set<String> groups = memberships.computeIfAbsent(playerUUID, uuid -> new HashSet<>());
+        if (groups.add(groupName)) {
+            markDirty(groupName, playerUUID.toString(), true);
+            resolvePermissions(playerUUID);
+            firePermissionsChanged();
         }
     }
 
     public void removePlayerFromGroup(UUID playerUUID, String groupName) {
-        List<String> members = groupConfig.getStringList("groups." + groupName + ".members");
-        if (members.contains(playerUUID.toString())) {
-            members.remove(playerUUID.toString());
-            groupConfig.set("groups." + groupName + ".members", members);
-            save();
+        Set<String> groups = memberships.get(playerUUID);
+        if (groups != null && groups.remove(groupName)) {
+            markDirty(groupName, playerUUID.toString(), false);
+            resolvePermissions(playerUUID);
+            firePermissionsChanged();
         }
     }
 
     public void removePlayerFromAllGroups(UUID playerUUID) {
-        for (String groupName : groupConfig.getConfigurationSection("groups").getKeys(false)) {
-            List<String> members = groupConfig.getStringList("groups." + groupName + ".members");
-            if (members.contains(playerUUID.toString())) {
-                members.remove(playerUUID.toString());
-                groupConfig.set("groups." + groupName + ".members", members);
-            }
+        Set<String> groups = memberships.remove(playerUUID);
+        playerPermissions.remove(playerUUID);
+        if (groups == null) {
+            return;
+        }
+        for (String groupName : groups) {
+            markDirty(groupName, playerUUID.toString(), false);
         }
-        save();
+        firePermissionsChanged();
     }
 
     public Set<String> getRoleNames() {
@@ -94,13 +294,51 @@ public class PermissonsManager implements Listener {
         if (player.isOp()) {
             return true;
         }
-        for (String groupName : groupConfig.getConfigurationSection("groups").getKeys(false)) {
-            if (groupConfig.getStringList("groups." + groupName + ".members").contains(player.getUniqueId().toString())) {
-                if (groupConfig.getStringList("groups." + groupName + ".permissions").contains(permission)) {
-                    return true;
-                }
-            }
+        Integer permissionId = permissionIds.get(permission);
+        if (permissionId == null) { // No group grants this permission
+            return false;
+        }
+        BitSet permissions = playerPermissions.get(player.getUniqueId());
+        return permissions != null && permissions.get(permissionId);
+    }
+
+    /**
+     * Method to get the resolved permission set of a player. Players with equal sets are allowed exactly the same commands,
+     * so the set can be used as a cache key. The returned set must not be modified.
+     * @param player Player to look up
+     * @return The player's permission set
+     */
+    public BitSet getPermissionSet(Player player) {
+        if (player.isOp()) {
+            return allPermissions;
+        }
+        BitSet permissions = playerPermissions.get(player.getUniqueId());
+        return permissions != null ? permissions : noPermissions;
+    }
+
+    /**
+     * Method to check a permission against a set returned by getPermissionSet
+     * @param permissions Permission set
+     * @param permission Permission to check
+     * @return True if the set holds the permission
+     */
+    public boolean hasPermission(BitSet permissions, String permission) {
+        if (permissions == allPermissions) {
+            return true; // Ops, including permissions no group grants
+        }
+        Integer permissionId = permissionIds.get(permission);
+        return permissionId != null && permissions.get(permissionId);
+    }
+
+
+    private static final class Snapshot {
+
+        private final long version;
+        private final Map<String, List<String>> members;
+
+        private Snapshot(long version, Map<String, List<String>> members) {
+            this.version = version;
+            this.members = members;
         }
-        return false;
     }
 }
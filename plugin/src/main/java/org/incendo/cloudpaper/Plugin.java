@@ -1,11 +1,17 @@
 package org.incendo.cloudpaper;
 
+import org.bukkit.Bukkit;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,28 +21,171 @@ public final class Plugin extends JavaPlugin {
     private DatabaseManager databaseManager;
     private TicketManager ticketManager;
     private PermissonsManager permissonsManager;
+    private AsyncManager asyncManager;
+    private WriteBehindQueue writeQueue;
+    private DiscordManager discordManager;
+    private Metrics metrics;
+    private BukkitTask metricsTask;
+    private BukkitTask archiveTask;
+    private BukkitTask syncTask;
+    private BukkitTask pruneTask;
+    private File metricsFile;
+    // Archive, sync and prune runs hold the read lock while they work, onDisable takes the write lock to wait for them
+    private final ReentrantReadWriteLock backgroundRuns = new ReentrantReadWriteLock();
+    private volatile boolean stopping;
 
     @Override
     public void onEnable() {
 
         this.saveDefaultConfig();
         LOGGER = this.getLogger();
+        metrics = new Metrics();
         permissonsManager = new PermissonsManager(this);
-        databaseManager = new DatabaseManager(this.getConfig());
-        ticketManager = new TicketManager(this, databaseManager, permissonsManager, this.getConfig());
-        setupDatabase();
+        databaseManager = new DatabaseManager(this.getDataFolder(), this.getConfig(), metrics);
+        asyncManager = new AsyncManager(this, this.getConfig());
+        writeQueue = new WriteBehindQueue(databaseManager, this.getConfig());
+        discordManager = new DiscordManager(this.getDataFolder(), this.getConfig(), metrics);
+        ticketManager = new TicketManager(this, databaseManager, permissonsManager, asyncManager, writeQueue, discordManager, metrics, this.getConfig());
+        if (!setupDatabase()) {
+            // Commands would fail or write to tables in an unknown state, so do not run at all
+            LOGGER.severe("The database could not be set up, disabling the plugin. Fix the error above and restart the server.");
+            Bukkit.getPluginManager().disablePlugin(this);
+            return;
+        }
+        ticketManager.loadIndexes();
+        setupMetricsFile();
+        setupArchival();
+        setupSync();
         LOGGER.info("Enabled!"); // Log plugin enable status
     }
 
     @Override
     public void onDisable() {
+        stopping = true; // A running archive stops after its current batch
         permissonsManager.save();
+        if (archiveTask != null) {
+            archiveTask.cancel();
+        }
+        if (syncTask != null) {
+            syncTask.cancel();
+            pruneTask.cancel();
+        }
+        awaitBackgroundRuns(); // Cancelling does not stop a run that has already started
+        asyncManager.shutdown(); // Let queued ticket work finish before the connection goes away
+        writeQueue.shutdown(); // Flush buffered ticket writes
+        discordManager.shutdown(); // Spool Discord posts that have not been sent yet
+        if (metricsTask != null) {
+            metricsTask.cancel();
+            writeMetricsFile(); // Leave the final numbers behind for the last scrape
+        }
+        LOGGER.info("Ticket cache: " + databaseManager.getTicketCache());
         databaseManager.disconnectFromDatabase(); // Disconnect from the database
         getLogger().info("Disabled!"); // Log plugin disable status
     }
 
-    private void setupDatabase() {
+    private boolean setupDatabase() {
         databaseManager.connectToDatabase();
-        databaseManager.createTicketsTable();
+        return databaseManager.migrateSchema();
     }
-}
\ No newline at end of file
+
+    private void setupMetricsFile() {
+        String path = this.getConfig().getString("metrics-file", "");
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+        File file = new File(path);
+        metricsFile = file.isAbsolute() ? file : new File(this.getDataFolder(), path);
+        long interval = Math.max(1L, this.getConfig().getLong("metrics-interval", 15L)) * 20L;
+        metricsTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this, this::writeMetricsFile, interval, interval);
+        LOGGER.info("Writing metrics to " + metricsFile);
+    }
+
+    private void setupArchival() {
+        int afterDays = this.getConfig().getInt("archive-after-days", 30);
+        if (afterDays <= 0) {
+            return;
+        }
+        long interval = Math.max(1L, this.getConfig().getLong("archive-interval", 60L)) * 60L * 20L;
+        // First run a minute after startup, once the indexes have loaded
+        archiveTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> runInBackground(() -> archiveClosedTickets(afterDays)), 60L * 20L, interval);
+    }
+
+    private void archiveClosedTickets(int afterDays) {
+        long closedBefore = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(afterDays);
+        try {
+            int moved = databaseManager.archiveClosedTickets(closedBefore, Math.max(1, this.getConfig().getInt("archive-batch-size", 500)), () -> stopping);
+            if (moved > 0) {
+                LOGGER.info("Archived " + moved + " ticket(s) closed more than " + afterDays + " days ago");
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Could not archive closed tickets, trying again next run", e);
+        }
+    }
+
+    private void setupSync() {
+        if (!databaseManager.isSyncEnabled()) {
+            return;
+        }
+        // Holes in the sequence are waited for 10 seconds, far longer than a ticket transaction stays open
+        TicketEventFeed feed = new TicketEventFeed(databaseManager, databaseManager.getNodeId(), ticketManager::applyEvent, 500, 10000L);
+        long interval = Math.max(1L, this.getConfig().getLong("sync-interval", 500L) / 50L); // Milliseconds to ticks
+        long retention = Math.max(60L, this.getConfig().getLong("sync-retention", 3600L)) * 1000L;
+        syncTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> runInBackground(() -> pollEvents(feed)), 0L, interval);
+        pruneTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> runInBackground(() -> pruneEvents(retention)), 60L * 20L, 60L * 20L);
+        LOGGER.info("Syncing tickets with the other servers as " + databaseManager.getNodeId());
+    }
+
+    /**
+     * Method to run a database task from an async timer, unless the plugin is being disabled
+     * @param run Task to run
+     */
+    private void runInBackground(Runnable run) {
+        // Never blocks the scheduler thread, a run that starts while onDisable waits is skipped
+        if (stopping || !backgroundRuns.readLock().tryLock()) {
+            return;
+        }
+        try {
+            if (!stopping) {
+                run.run();
+            }
+        } finally {
+            backgroundRuns.readLock().unlock();
+        }
+    }
+
+    private void awaitBackgroundRuns() {
+        try {
+            if (backgroundRuns.writeLock().tryLock(10, TimeUnit.SECONDS)) {
+                backgroundRuns.writeLock().unlock(); // Later runs see stopping and return right away
+            } else {
+                LOGGER.log(Level.WARNING, "Timed out waiting for the archive and sync tasks to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void pollEvents(TicketEventFeed feed) {
+        try {
+            feed.poll(System.currentTimeMillis());
+        } catch (CompletionException e) {
+            LOGGER.log(Level.WARNING, "Could not read ticket events, trying again next run", e.getCause());
+        }
+    }
+
+    private void pruneEvents(long retention) {
+        try {
+            databaseManager.pruneEvents(System.currentTimeMillis() - retention);
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Could not prune ticket events, trying again next run", e);
+        }
+    }
+
+    private void writeMetricsFile() {
+        try {
+            metrics.writePrometheus(metricsFile);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not write metrics to " + metricsFile, e);
+        }
+    }
+}
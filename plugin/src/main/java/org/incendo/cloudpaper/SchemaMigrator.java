@@ -0,0 +1,407 @@
+package org.incendo.cloudpaper;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+
+import static org.incendo.cloudpaper.Plugin.LOGGER;
+
+/**
+ * Applies the ordered schema migrations that have not yet been recorded in the 'schema_version' table
+ */
+public class SchemaMigrator {
+
+    // Columns of the tickets table as migration 3 found it, Ticket.COLUMNS has grown since
+    private static final String VERSION_3_COLUMNS = "ID, player_uuid, username, Description, Status, world, x_coord, y_coord, z_coord, pitch, yaw, creation_time";
+
+    private final SqlDialect dialect;
+    private final List<Migration> migrations = new ArrayList<>();
+
+    public SchemaMigrator(SqlDialect dialect) {
+        this.dialect = dialect;
+        // Append new migrations to the end of this list, never reorder or edit one that has shipped
+        migrations.add(new Migration(1, "Create tickets table", this::createTicketsTable));
+        migrations.add(new Migration(2, "Index tickets by player/status and status/ID", this::addTicketIndexes));
+        migrations.add(new Migration(3, "Store player_uuid as 16 bytes", this::convertPlayerUUIDToBinary));
+        migrations.add(new Migration(4, "Replace free text Status with OPEN/CLAIMED/CLOSED plus claimed_by/closed_by", this::structureTicketStatus));
+        migrations.add(new Migration(5, "Add closed_at and the tickets_archive table for long closed tickets", this::addTicketArchive));
+        migrations.add(new Migration(6, "Add the ticket_events change log servers sharing the database follow", this::addTicketEvents));
+    }
+
+
+    /**
+     * Method to bring the schema up to date
+     * @param connection Connection to migrate with
+     * @return True if the schema is at the latest version, false if a migration failed
+     */
+    public boolean migrate(Connection connection) {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INT PRIMARY KEY NOT NULL," +
+                    "description VARCHAR(255) NOT NULL," +
+                    "installed_at BIGINT NOT NULL" +
+                    ")");
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Could not create the schema_version table", e);
+            return false;
+        }
+        boolean locked = acquireLock(connection);
+        try {
+            int currentVersion = getCurrentVersion(connection);
+            for (Migration migration : migrations) {
+                if (migration.version <= currentVersion) {
+                    continue;
+                }
+                try {
+                    apply(connection, migration);
+                    LOGGER.info("Applied database migration " + migration.version + ": " + migration.description);
+                } catch (SQLException | RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Database migration " + migration.version + " (" + migration.description + ") failed, later migrations were not applied", e);
+                    return false;
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Could not read the current schema version", e);
+            return false;
+        } finally {
+            if (locked) {
+                releaseLock(connection);
+            }
+        }
+    }
+
+    /**
+     * Method to get the newest migration version known to this build
+     * @return Latest schema version
+     */
+    public int getLatestVersion() {
+        return migrations.get(migrations.size() - 1).version;
+    }
+
+
+    private void apply(Connection connection, Migration migration) throws SQLException {
+        // SQLite runs DDL inside the transaction, MySQL and MariaDB commit implicitly around each DDL statement.
+        // A MySQL migration that fails halfway is therefore not rolled back, so every step checks whether it was already made.
+        connection.setAutoCommit(false);
+        try {
+            migration.step.apply(connection);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    "INSERT INTO schema_version (version, description, installed_at) VALUES (?, ?, ?)")) {
+                preparedStatement.setInt(1, migration.version);
+                preparedStatement.setString(2, migration.description);
+                preparedStatement.setLong(3, System.currentTimeMillis());
+                preparedStatement.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            // Also roll back on a bug in a step, the setAutoCommit below would otherwise commit the half-made migration
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private int getCurrentVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    // Several servers can share one database, only one of them should migrate it at a time
+    private boolean acquireLock(Connection connection) {
+        if (!dialect.isMySqlFamily()) {
+            return false;
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT GET_LOCK('ticket_schema_migration', 60)")) {
+            return resultSet.next() && resultSet.getInt(1) == 1;
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Could not take the schema migration lock, migrating without it", e);
+            return false;
+        }
+    }
+
+    private void releaseLock(Connection connection) {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SELECT RELEASE_LOCK('ticket_schema_migration')");
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Could not release the schema migration lock", e);
+        }
+    }
+
+
+    // Migration 1: the original table, IF NOT EXISTS keeps it a no-op for databases created before migrations existed
+    private void createTicketsTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS tickets (" +
+                    "ID " + dialect.autoIncrementPrimaryKey() + "," +
+                    "player_uuid VARCHAR(36) NOT NULL," +
+                    "username VARCHAR(45) NOT NULL," +
+                    "Description VARCHAR(255) NOT NULL," +
+                    "Status VARCHAR(45) NOT NULL," +
+                    "world VARCHAR(45) NOT NULL," +
+                    "x_coord DOUBLE NOT NULL," +
+                    "y_coord DOUBLE NOT NULL," +
+                    "z_coord DOUBLE NOT NULL," +
+                    "pitch DOUBLE NOT NULL," +
+                    "yaw DOUBLE NOT NULL," +
+                    "creation_time BIGINT NOT NULL" +
+                    ")");
+        }
+    }
+
+    // Migration 2: player lookups filter by owner and status, the list pages by status and ID
+    private void addTicketIndexes(Connection connection) throws SQLException {
+        createIndex(connection, "idx_tickets_player_status", "tickets", "player_uuid, Status");
+        createIndex(connection, "idx_tickets_status_id", "tickets", "Status, ID");
+    }
+
+    // Migration 3: 16 raw bytes instead of a 36 character string keeps the player index a third of the size
+    private void convertPlayerUUIDToBinary(Connection connection) throws SQLException {
+        if (dialect.isMySqlFamily()) {
+            try (Statement statement = connection.createStatement()) {
+                // A rerun after a failure finds player_uuid_bin already added, or player_uuid already converted
+                if (columnType(connection, "tickets", "player_uuid_bin") == null && !"binary".equals(columnType(connection, "tickets", "player_uuid"))) {
+                    statement.executeUpdate("ALTER TABLE tickets ADD COLUMN player_uuid_bin BINARY(16) NULL");
+                }
+                if (columnType(connection, "tickets", "player_uuid_bin") != null) {
+                    if (columnType(connection, "tickets", "player_uuid") != null) {
+                        statement.executeUpdate("UPDATE tickets SET player_uuid_bin = UNHEX(REPLACE(player_uuid, '-', ''))");
+                        // Stop while the text column still exists, so the bad rows can be fixed by hand before the next start
+                        try (ResultSet resultSet = statement.executeQuery(
+                                "SELECT COUNT(*) FROM tickets WHERE player_uuid_bin IS NULL OR LENGTH(REPLACE(player_uuid, '-', '')) <> 32")) {
+                            int invalid = resultSet.next() ? resultSet.getInt(1) : 0;
+                            if (invalid > 0) {
+                                throw new SQLException(invalid + " ticket(s) have a player_uuid that is not a valid UUID, fix them and restart the server");
+                            }
+                        }
+                        if (hasIndex(connection, "tickets", "idx_tickets_player_status")) {
+                            statement.executeUpdate("DROP INDEX idx_tickets_player_status ON tickets");
+                        }
+                        statement.executeUpdate("ALTER TABLE tickets DROP COLUMN player_uuid");
+                    }
+                    statement.executeUpdate("ALTER TABLE tickets CHANGE player_uuid_bin player_uuid BINARY(16) NOT NULL");
+                }
+            }
+            createIndex(connection, "idx_tickets_player_status", "tickets", "player_uuid, Status");
+            return;
+        }
+        // SQLite cannot change a column type in place and older versions have no UNHEX, so rebuild the table.
+        // Check every UUID before copying anything, like the MySQL branch does.
+        int invalid = 0;
+        try (Statement select = connection.createStatement();
+             ResultSet resultSet = select.executeQuery("SELECT ID, player_uuid FROM tickets")) {
+            while (resultSet.next()) {
+                if (!isUUID(resultSet.getString(2))) {
+                    LOGGER.warning("Ticket " + resultSet.getInt(1) + " has a player_uuid that is not a valid UUID: " + resultSet.getString(2));
+                    invalid++;
+                }
+            }
+        }
+        if (invalid > 0) {
+            throw new SQLException(invalid + " ticket(s) have a player_uuid that is not a valid UUID, fix them and restart the server");
+        }
+        try (Statement statement = connection.createStatement()) {
+            // Left behind by a run of this migration that was interrupted before it committed
+            statement.executeUpdate("DROP TABLE IF EXISTS tickets_rebuild");
+            statement.executeUpdate("CREATE TABLE tickets_rebuild (" +
+                    "ID " + dialect.autoIncrementPrimaryKey() + "," +
+                    "player_uuid " + dialect.uuidType() + " NOT NULL," +
+                    "username VARCHAR(45) NOT NULL," +
+                    "Description VARCHAR(255) NOT NULL," +
+                    "Status VARCHAR(45) NOT NULL," +
+                    "world VARCHAR(45) NOT NULL," +
+                    "x_coord DOUBLE NOT NULL," +
+                    "y_coord DOUBLE NOT NULL," +
+                    "z_coord DOUBLE NOT NULL," +
+                    "pitch DOUBLE NOT NULL," +
+                    "yaw DOUBLE NOT NULL," +
+                    "creation_time BIGINT NOT NULL" +
+                    ")");
+        }
+        try (Statement select = connection.createStatement();
+             ResultSet resultSet = select.executeQuery("SELECT " + VERSION_3_COLUMNS + " FROM tickets");
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO tickets_rebuild (" + VERSION_3_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            int pending = 0;
+            while (resultSet.next()) {
+                insert.setInt(1, resultSet.getInt(1));
+                insert.setBytes(2, UUIDConverter.toBytes(UUID.fromString(resultSet.getString(2))));
+                for (int column = 3; column <= 12; column++) {
+                    insert.setObject(column, resultSet.getObject(column));
+                }
+                insert.addBatch();
+                if (++pending % 500 == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DROP TABLE tickets");
+            statement.executeUpdate("ALTER TABLE tickets_rebuild RENAME TO tickets");
+            statement.executeUpdate("CREATE INDEX idx_tickets_player_status ON tickets (player_uuid, Status)");
+            statement.executeUpdate("CREATE INDEX idx_tickets_status_id ON tickets (Status, ID)");
+        }
+    }
+
+
+    private static boolean isUUID(String value) {
+        if (value == null) {
+            return false;
+        }
+        try {
+            UUID.fromString(value);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+
+    // Migration 4: a fixed set of statuses lets claim/close/reopen be single conditional UPDATEs on an indexed column.
+    // Who claimed a ticket was only stored as a name before, so claims made before this migration have no claimed_by.
+    private void structureTicketStatus(Connection connection) throws SQLException {
+        addColumn(connection, "tickets", "claimed_by", dialect.uuidType() + " NULL");
+        addColumn(connection, "tickets", "closed_by", dialect.uuidType() + " NULL");
+        try (Statement statement = connection.createStatement()) {
+            // Both updates leave already converted rows as they are
+            statement.executeUpdate("UPDATE tickets SET closed_by = player_uuid WHERE Status = 'closed by creator'");
+            statement.executeUpdate("UPDATE tickets SET Status = CASE" +
+                    " WHEN Status LIKE 'closed%' THEN 'CLOSED'" +
+                    " WHEN Status LIKE 'claimed%' THEN 'CLAIMED'" +
+                    " ELSE 'OPEN' END");
+            if (dialect.isMySqlFamily() && !"enum".equals(columnType(connection, "tickets", "Status"))) {
+                // One byte per row instead of up to 45 characters, SQLite keeps the text values
+                statement.executeUpdate("ALTER TABLE tickets MODIFY Status ENUM('OPEN', 'CLAIMED', 'CLOSED') NOT NULL DEFAULT 'OPEN'");
+            }
+        }
+    }
+
+
+    // Migration 5: closed tickets are moved to tickets_archive once they have been closed long enough, so tickets only holds the working set.
+    // Tickets closed before this migration have no closing time, they count as closed now and are archived a full period after the upgrade.
+    private void addTicketArchive(Connection connection) throws SQLException {
+        addColumn(connection, "tickets", "closed_at", "BIGINT NULL");
+        createIndex(connection, "idx_tickets_status_closed_at", "tickets", "Status, closed_at");
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE tickets SET closed_at = " + System.currentTimeMillis() + " WHERE Status = 'CLOSED' AND closed_at IS NULL");
+            // IDs are copied from tickets, INTEGER PRIMARY KEY also makes the ID the row key on SQLite
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS tickets_archive (" +
+                    "ID INTEGER PRIMARY KEY NOT NULL," +
+                    "player_uuid " + dialect.uuidType() + " NOT NULL," +
+                    "username VARCHAR(45) NOT NULL," +
+                    "Description VARCHAR(255) NOT NULL," +
+                    "Status VARCHAR(16) NOT NULL," +
+                    "world VARCHAR(45) NOT NULL," +
+                    "x_coord DOUBLE NOT NULL," +
+                    "y_coord DOUBLE NOT NULL," +
+                    "z_coord DOUBLE NOT NULL," +
+                    "pitch DOUBLE NOT NULL," +
+                    "yaw DOUBLE NOT NULL," +
+                    "creation_time BIGINT NOT NULL," +
+                    "claimed_by " + dialect.uuidType() + " NULL," +
+                    "closed_by " + dialect.uuidType() + " NULL," +
+                    "closed_at BIGINT NULL," +
+                    "archived_at BIGINT NOT NULL" +
+                    ")");
+        }
+        createIndex(connection, "idx_tickets_archive_player", "tickets_archive", "player_uuid");
+    }
+
+
+    // Migration 6: every ticket change also appends a row here in the same transaction, other servers poll it by seq to stay in sync.
+    // Rows only need to outlive the slowest poller, they are pruned by created_at.
+    private void addTicketEvents(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS ticket_events (" +
+                    "seq " + dialect.autoIncrementPrimaryKey() + "," +
+                    "ticket_id INT NOT NULL," +
+                    "event VARCHAR(16) NOT NULL," +
+                    "node_id VARCHAR(64) NOT NULL," +
+                    "created_at BIGINT NOT NULL" +
+                    ")");
+        }
+        createIndex(connection, "idx_ticket_events_created_at", "ticket_events", "created_at");
+    }
+
+
+    /**
+     * Method to look up the type of a column
+     * @param connection Connection to look it up with
+     * @param table Name of the table
+     * @param column Name of the column
+     * @return Lower case type of the column, or null if the table has no such column
+     * @throws SQLException If the lookup failed
+     */
+    private String columnType(Connection connection, String table, String column) throws SQLException {
+        String sql = dialect.isMySqlFamily()
+                ? "SELECT DATA_TYPE FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?"
+                : "SELECT type FROM pragma_table_info(?) WHERE name = ? COLLATE NOCASE";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, table);
+            preparedStatement.setString(2, column);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1).toLowerCase() : null;
+            }
+        }
+    }
+
+    private boolean hasIndex(Connection connection, String table, String index) throws SQLException {
+        String sql = dialect.isMySqlFamily()
+                ? "SELECT 1 FROM information_schema.STATISTICS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = ?"
+                : "SELECT 1 FROM sqlite_master WHERE type = 'index' AND tbl_name = ? AND name = ?";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, table);
+            preparedStatement.setString(2, index);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    // Method to add a column unless an earlier, failed run of the migration already added it
+    private void addColumn(Connection connection, String table, String column, String definition) throws SQLException {
+        if (columnType(connection, table, column) == null) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+            }
+        }
+    }
+
+    // Method to create an index unless an earlier, failed run of the migration already created it
+    private void createIndex(Connection connection, String index, String table, String columns) throws SQLException {
+        if (!hasIndex(connection, table, index)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE INDEX " + index + " ON " + table + " (" + columns + ")");
+            }
+        }
+    }
+
+
+    private interface MigrationStep {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    private static final class Migration {
+
+        private final int version;
+        private final String description;
+        private final MigrationStep step;
+
+        private Migration(int version, String description, MigrationStep step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+}
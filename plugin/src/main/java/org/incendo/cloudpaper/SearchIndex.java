@@ -0,0 +1,409 @@
+package org.incendo.cloudpaper;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over the description and username of every ticket, for /ticket search.
+ * Terms are kept sorted so every query word also matches the terms it is a prefix of, e.g. 'grief' finds 'griefed'.
+ */
+public class SearchIndex {
+
+    // Words in the username count double, searching for a player's name should rank their own tickets first
+    private static final int USERNAME_WEIGHT = 2;
+    // A prefix match scores less than typing the whole word
+    private static final double PREFIX_FACTOR = 0.6;
+    private static final int MIN_TERM_LENGTH = 2;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NavigableMap<String, Postings> terms = new TreeMap<>();
+    private final Map<Integer, Document> documents = new HashMap<>();
+    private long totalLength;
+
+
+    /**
+     * Method to add a ticket, or replace it if it is already indexed
+     * @param ticketId ID of the ticket
+     * @param username Name of the player who created it
+     * @param description Description of the ticket
+     */
+    public void add(int ticketId, String username, String description) {
+        Document document = new Document(ticketId, username, description);
+        lock.writeLock().lock();
+        try {
+            Document previous = documents.put(ticketId, document);
+            if (previous != null) {
+                unlink(previous);
+            }
+            for (Map.Entry<String, Integer> term : document.termFrequencies.entrySet()) {
+                terms.computeIfAbsent(term.getKey(), key -> new Postings()).put(ticketId, term.getValue(), document.length);
+            }
+            totalLength += document.length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method to re-index a ticket after its description changed, keeping the username it was indexed with
+     * @param ticketId ID of the ticket
+     * @param description New description
+     */
+    public void updateDescription(int ticketId, String description) {
+        String username;
+        lock.readLock().lock();
+        try {
+            Document document = documents.get(ticketId);
+            if (document == null) {
+                return; // Not indexed yet, the startup load or the insert will pick up the new description
+            }
+            username = document.username;
+        } finally {
+            lock.readLock().unlock();
+        }
+        add(ticketId, username, description);
+    }
+
+    public void remove(int ticketId) {
+        lock.writeLock().lock();
+        try {
+            Document document = documents.remove(ticketId);
+            if (document != null) {
+                unlink(document);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void unlink(Document document) {
+        for (String term : document.termFrequencies.keySet()) {
+            Postings postings = terms.get(term);
+            if (postings != null && postings.remove(document.ticketId) && postings.size == 0) {
+                terms.remove(term);
+            }
+        }
+        totalLength -= document.length;
+    }
+
+    /**
+     * Method to find the tickets matching every word of a query, best match first
+     * @param query Words to search for, each also matching longer words it is a prefix of
+     * @param limit Maximum number of results
+     * @return Matching tickets, highest score first and newest first on equal scores
+     */
+    public List<Result> search(String query, int limit) {
+        List<String> words = new ArrayList<>(tokenize(query).keySet());
+        if (words.isEmpty()) {
+            return new ArrayList<>();
+        }
+        lock.readLock().lock();
+        try {
+            int documentCount = documents.size();
+            double averageLength = documentCount == 0 ? 1 : Math.max(1, (double) totalLength / documentCount);
+            // Every term starting with a word, e.g. 'grief' covers 'grief', 'griefed' and 'griefer'. The rarest word goes first.
+            List<Map.Entry<String, NavigableMap<String, Postings>>> ranges = new ArrayList<>(words.size());
+            for (String word : words) {
+                ranges.add(new AbstractMap.SimpleEntry<>(word, terms.subMap(word, true, word + Character.MAX_VALUE, false)));
+            }
+            ranges.sort(Comparator.comparingLong(range -> postingsCount(range.getValue())));
+            ScoreMap scores = null;
+            for (Map.Entry<String, NavigableMap<String, Postings>> range : ranges) {
+                String word = range.getKey();
+                long count = postingsCount(range.getValue());
+                ScoreMap wordScores = new ScoreMap((int) Math.min(count, scores == null ? Integer.MAX_VALUE : scores.size));
+                if (scores == null || count <= (long) scores.size * 128) {
+                    for (Map.Entry<String, Postings> term : range.getValue().entrySet()) {
+                        Postings postings = term.getValue();
+                        double weight = weight(word, term.getKey(), postings.size, documentCount);
+                        for (int i = 0; i < postings.size; i++) {
+                            int ticketId = postings.ids[i];
+                            if (scores != null && !scores.contains(ticketId)) {
+                                continue; // Already missing an earlier word
+                            }
+                            wordScores.max(ticketId, weight * saturation(postings.frequencies[i], postings.lengths[i], averageLength));
+                        }
+                    }
+                } else {
+                    // Only a few candidates left and a very common word, checking the candidates' own terms is cheaper than walking its postings.
+                    // Walking postings is a scan of an array while looking at a ticket costs several cache misses, hence the wide margin above
+                    Map<String, Double> weights = new HashMap<>();
+                    for (int slot = 0; slot < scores.keys.length; slot++) {
+                        if (scores.keys[slot] == 0) {
+                            continue;
+                        }
+                        Document document = documents.get(scores.keys[slot]);
+                        for (Map.Entry<String, Integer> term : document.termFrequencies.entrySet()) {
+                            if (term.getKey().startsWith(word)) {
+                                double weight = weights.computeIfAbsent(term.getKey(), key -> weight(word, key, terms.get(key).size, documentCount));
+                                wordScores.max(document.ticketId, weight * saturation(term.getValue(), document.length, averageLength));
+                            }
+                        }
+                    }
+                }
+                if (scores != null) {
+                    wordScores.addFrom(scores);
+                }
+                scores = wordScores;
+                if (scores.size == 0) {
+                    break;
+                }
+            }
+            return top(scores, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method to pick the best scores without sorting every match
+     * @param scores Score of every matching ticket
+     * @param limit Number of results to keep
+     * @return The best results, highest score first and newest first on equal scores
+     */
+    private List<Result> top(ScoreMap scores, int limit) {
+        Comparator<Result> order = (a, b) -> a.score != b.score ? Double.compare(b.score, a.score) : Integer.compare(b.ticketId, a.ticketId);
+        // Worst kept result at the head, so a better one can replace it
+        PriorityQueue<Result> best = new PriorityQueue<>(limit + 1, order.reversed());
+        for (int slot = 0; slot < scores.keys.length; slot++) {
+            int ticketId = scores.keys[slot];
+            if (ticketId == 0) {
+                continue;
+            }
+            double score = scores.values[slot];
+            Result worst = best.peek();
+            if (best.size() >= limit && (score < worst.score || score == worst.score && ticketId < worst.ticketId)) {
+                continue;
+            }
+            Document document = documents.get(ticketId);
+            best.add(new Result(ticketId, document.username, document.description, score));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        List<Result> results = new ArrayList<>(best);
+        results.sort(order);
+        return results;
+    }
+
+    private static long postingsCount(NavigableMap<String, Postings> range) {
+        long count = 0;
+        for (Postings postings : range.values()) {
+            count += postings.size;
+        }
+        return count;
+    }
+
+    // Scores are BM25 with the usual k1 = 1.2 and b = 0.75, scaled down for terms the word is only a prefix of
+    private static double weight(String word, String term, int documentFrequency, int documentCount) {
+        double idf = Math.log(1 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+        return (term.length() == word.length() ? 1 : PREFIX_FACTOR) * idf;
+    }
+
+    private static double saturation(int frequency, int length, double averageLength) {
+        return frequency * 2.2 / (frequency + 1.2 * (0.25 + 0.75 * length / averageLength));
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method to split text into lower case words of letters and digits
+     * @param text Text to split, may be null
+     * @return Every word of at least two characters with the number of times it occurs, in order of first occurrence
+     */
+    static Map<String, Integer> tokenize(String text) {
+        Map<String, Integer> words = new LinkedHashMap<>();
+        if (text == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= MIN_TERM_LENGTH) {
+                    words.merge(text.substring(start, i).toLowerCase(Locale.ROOT), 1, Integer::sum);
+                }
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+
+    private static final class Document {
+
+        private final int ticketId;
+        private final String username;
+        private final String description;
+        private final Map<String, Integer> termFrequencies;
+        private final int length;
+
+        private Document(int ticketId, String username, String description) {
+            this.ticketId = ticketId;
+            this.username = username;
+            this.description = description;
+            this.termFrequencies = tokenize(description);
+            for (Map.Entry<String, Integer> term : tokenize(username).entrySet()) {
+                termFrequencies.merge(term.getKey(), term.getValue() * USERNAME_WEIGHT, Integer::sum);
+            }
+            int length = 0;
+            for (int frequency : termFrequencies.values()) {
+                length += frequency;
+            }
+            this.length = length;
+        }
+    }
+
+    /**
+     * Ticket IDs containing a term, sorted by ID, with how often the term occurs in each.
+     * Ticket IDs only grow, so new tickets are appended at the end.
+     */
+    private static final class Postings {
+
+        private int[] ids = new int[2];
+        private int[] frequencies = new int[2];
+        // Length of each ticket, kept here so scoring does not have to look the ticket up
+        private int[] lengths = new int[2];
+        private int size;
+
+        private void put(int ticketId, int frequency, int length) {
+            int index = Arrays.binarySearch(ids, 0, size, ticketId);
+            if (index >= 0) {
+                frequencies[index] = frequency;
+                lengths[index] = length;
+                return;
+            }
+            index = -index - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            System.arraycopy(frequencies, index, frequencies, index + 1, size - index);
+            System.arraycopy(lengths, index, lengths, index + 1, size - index);
+            ids[index] = ticketId;
+            frequencies[index] = frequency;
+            lengths[index] = length;
+            size++;
+        }
+
+        private boolean remove(int ticketId) {
+            int index = Arrays.binarySearch(ids, 0, size, ticketId);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            System.arraycopy(frequencies, index + 1, frequencies, index, size - index - 1);
+            System.arraycopy(lengths, index + 1, lengths, index, size - index - 1);
+            size--;
+            return true;
+        }
+    }
+
+    /**
+     * Open addressing map from ticket ID to score, so scoring a query does not box every match. Ticket IDs are never 0.
+     */
+    private static final class ScoreMap {
+
+        private final int[] keys;
+        private final double[] values;
+        private final int mask;
+        private int size;
+
+        private ScoreMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(4, (int) Math.min(1 << 30, expected * 2L)) - 1) << 1;
+            this.keys = new int[capacity];
+            this.values = new double[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private int slotOf(int ticketId) {
+            int slot = (ticketId * 0x9E3779B9) & mask;
+            while (keys[slot] != 0 && keys[slot] != ticketId) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private boolean contains(int ticketId) {
+            return keys[slotOf(ticketId)] == ticketId;
+        }
+
+        // Keeps the highest score when several terms starting with the same word match one ticket
+        private void max(int ticketId, double score) {
+            int slot = slotOf(ticketId);
+            if (keys[slot] == 0) {
+                keys[slot] = ticketId;
+                values[slot] = score;
+                size++;
+            } else if (score > values[slot]) {
+                values[slot] = score;
+            }
+        }
+
+        // Adds the scores of the earlier words, every key here is also in earlier
+        private void addFrom(ScoreMap earlier) {
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0) {
+                    values[slot] += earlier.values[earlier.slotOf(keys[slot])];
+                }
+            }
+        }
+    }
+
+    /**
+     * A ticket found by search
+     */
+    public static final class Result {
+
+        private final int ticketId;
+        private final String username;
+        private final String description;
+        private final double score;
+
+        private Result(int ticketId, String username, String description, double score) {
+            this.ticketId = ticketId;
+            this.username = username;
+            this.description = description;
+            this.score = score;
+        }
+
+        public int getTicketId() {
+            return ticketId;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+}
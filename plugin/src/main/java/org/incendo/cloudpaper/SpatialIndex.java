@@ -0,0 +1,192 @@
+package org.incendo.cloudpaper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of the locations of open and claimed tickets, bucketed per world into 16x16 chunk columns.
+ * Lookups take the read lock and only visit the chunks within the radius, so they never scan every ticket.
+ */
+public class SpatialIndex {
+
+    private static final int CHUNK_SHIFT = 4;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Map<Long, List<Entry>>> worlds = new HashMap<>();
+    private final Map<Integer, Entry> entries = new HashMap<>();
+
+
+    /**
+     * Method to add a ticket, or move it if it is already indexed
+     * @param ticketId ID of the ticket
+     * @param world Name of the world the ticket was created in
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @param z Z coordinate
+     */
+    public void add(int ticketId, String world, double x, double y, double z) {
+        if (world == null) {
+            return;
+        }
+        Entry entry = new Entry(ticketId, world, x, y, z);
+        lock.writeLock().lock();
+        try {
+            Entry previous = entries.put(ticketId, entry);
+            if (previous != null) {
+                unlink(previous);
+            }
+            worlds.computeIfAbsent(world, name -> new HashMap<>())
+                    .computeIfAbsent(entry.chunkKey(), key -> new ArrayList<>(4))
+                    .add(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method to remove a ticket, e.g. once it is closed
+     * @param ticketId ID of the ticket
+     */
+    public void remove(int ticketId) {
+        lock.writeLock().lock();
+        try {
+            Entry entry = entries.remove(ticketId);
+            if (entry != null) {
+                unlink(entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void unlink(Entry entry) {
+        Map<Long, List<Entry>> chunks = worlds.get(entry.world);
+        List<Entry> chunk = chunks.get(entry.chunkKey());
+        chunk.remove(entry);
+        if (chunk.isEmpty()) {
+            chunks.remove(entry.chunkKey());
+            if (chunks.isEmpty()) {
+                worlds.remove(entry.world);
+            }
+        }
+    }
+
+    /**
+     * Method to find the tickets closest to a location
+     * @param world Name of the world to search
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @param z Z coordinate
+     * @param radius Only return tickets at most this many blocks away
+     * @param limit Maximum number of tickets to return
+     * @return Matching tickets, nearest first
+     */
+    public List<Match> findNearest(String world, double x, double y, double z, double radius, int limit) {
+        double radiusSquared = radius * radius;
+        List<Match> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Map<Long, List<Entry>> chunks = worlds.get(world);
+            if (chunks == null) {
+                return matches;
+            }
+            int minChunkX = (int) Math.floor(x - radius) >> CHUNK_SHIFT;
+            int maxChunkX = (int) Math.floor(x + radius) >> CHUNK_SHIFT;
+            int minChunkZ = (int) Math.floor(z - radius) >> CHUNK_SHIFT;
+            int maxChunkZ = (int) Math.floor(z + radius) >> CHUNK_SHIFT;
+            long cells = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+            if (cells > chunks.size()) {
+                // Huge radius on a sparse world, walking the occupied chunks is cheaper than probing every cell
+                for (List<Entry> chunk : chunks.values()) {
+                    collect(chunk, x, y, z, radiusSquared, matches);
+                }
+            } else {
+                for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                    for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                        List<Entry> chunk = chunks.get(chunkKey(chunkX, chunkZ));
+                        if (chunk != null) {
+                            collect(chunk, x, y, z, radiusSquared, matches);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        matches.sort((a, b) -> Double.compare(a.distanceSquared, b.distanceSquared));
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    private static void collect(List<Entry> chunk, double x, double y, double z, double radiusSquared, List<Match> matches) {
+        for (Entry entry : chunk) {
+            double dx = entry.x - x;
+            double dy = entry.y - y;
+            double dz = entry.z - z;
+            double distanceSquared = dx * dx + dy * dy + dz * dz;
+            if (distanceSquared <= radiusSquared) {
+                matches.add(new Match(entry.ticketId, distanceSquared));
+            }
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+
+    private static final class Entry {
+
+        private final int ticketId;
+        private final String world;
+        private final double x;
+        private final double y;
+        private final double z;
+
+        private Entry(int ticketId, String world, double x, double y, double z) {
+            this.ticketId = ticketId;
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        private long chunkKey() {
+            return SpatialIndex.chunkKey((int) Math.floor(x) >> CHUNK_SHIFT, (int) Math.floor(z) >> CHUNK_SHIFT);
+        }
+    }
+
+    /**
+     * A ticket found by findNearest
+     */
+    public static final class Match {
+
+        private final int ticketId;
+        private final double distanceSquared;
+
+        private Match(int ticketId, double distanceSquared) {
+            this.ticketId = ticketId;
+            this.distanceSquared = distanceSquared;
+        }
+
+        public int getTicketId() {
+            return ticketId;
+        }
+
+        public double getDistance() {
+            return Math.sqrt(distanceSquared);
+        }
+    }
+}
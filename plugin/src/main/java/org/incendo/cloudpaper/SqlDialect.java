@@ -0,0 +1,91 @@
+package org.incendo.cloudpaper;
+
+/**
+ * SQL differences between the supported database-type values
+ */
+public enum SqlDialect {
+
+    MYSQL("INT PRIMARY KEY AUTO_INCREMENT NOT NULL", "BINARY(16)"),
+    MARIADB("INT PRIMARY KEY AUTO_INCREMENT NOT NULL", "BINARY(16)"),
+    SQLITE("INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL", "BLOB");
+
+    private final String autoIncrementPrimaryKey;
+    private final String uuidType;
+
+    SqlDialect(String autoIncrementPrimaryKey, String uuidType) {
+        this.autoIncrementPrimaryKey = autoIncrementPrimaryKey;
+        this.uuidType = uuidType;
+    }
+
+
+    /**
+     * Method to get the dialect for a database-type config value
+     * @param databaseType Value of database-type
+     * @return Matching dialect, MySQL if the value is not recognised
+     */
+    public static SqlDialect fromDatabaseType(String databaseType) {
+        if (databaseType != null) {
+            for (SqlDialect dialect : values()) {
+                if (dialect.name().equalsIgnoreCase(databaseType)) {
+                    return dialect;
+                }
+            }
+        }
+        return MYSQL;
+    }
+
+    /**
+     * @return Column definition for an auto-incrementing integer primary key
+     */
+    public String autoIncrementPrimaryKey() {
+        return autoIncrementPrimaryKey;
+    }
+
+    /**
+     * @return Column type used to store a UUID as 16 raw bytes
+     */
+    public String uuidType() {
+        return uuidType;
+    }
+
+    /**
+     * @return Fetch size that makes the driver stream a large result set instead of reading it into memory at once
+     */
+    public int streamingFetchSize() {
+        return streamingFetchSize(1000);
+    }
+
+    /**
+     * @param rows Rows fetched per round trip by drivers that take a batch size
+     * @return Fetch size that makes the driver stream a large result set in batches of about that many rows
+     */
+    public int streamingFetchSize(int rows) {
+        // MySQL Connector/J only streams with this exact value, the other drivers take a batch size
+        return this == MYSQL ? Integer.MIN_VALUE : Math.max(1, rows);
+    }
+
+    /**
+     * @return Start of an INSERT that skips rows whose primary key already exists, followed by INTO
+     */
+    public String insertIgnore() {
+        return isMySqlFamily() ? "INSERT IGNORE INTO" : "INSERT OR IGNORE INTO";
+    }
+
+    /**
+     * @return FROM clause of a SELECT that reads no table but has a WHERE, SQLite needs none
+     */
+    public String fromNoTable() {
+        return isMySqlFamily() ? " FROM DUAL" : "";
+    }
+
+    /**
+     * @return Suffix that locks the rows a SELECT reads until the transaction ends, SQLite has a single writer and needs none
+     */
+    public String lockRowsSuffix() {
+        return isMySqlFamily() ? " FOR UPDATE" : "";
+    }
+
+    public boolean isMySqlFamily() {
+        return this == MYSQL || this == MARIADB;
+    }
+}
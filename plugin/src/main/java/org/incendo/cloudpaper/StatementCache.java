@@ -0,0 +1,155 @@
+package org.incendo.cloudpaper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Prepared statements of one pooled connection, kept open between borrows and looked up by their SQL text.
+ * The driver parses and plans a statement once per connection instead of on every query.
+ * Like the connection itself, the cache is only used by the one thread that borrowed the connection.
+ */
+public class StatementCache {
+
+    private final Connection connection;
+    private final int maxSize;
+    // Access ordered, the eldest entry is the least recently used statement
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    public StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<>(16, 0.75F, true);
+    }
+
+
+    /**
+     * Method to get a prepared statement, preparing it on first use. Closing the returned statement hands it back to the cache.
+     * @param sql SQL text of the statement
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS
+     * @return A statement with no parameters set
+     * @throws SQLException If the statement could not be prepared
+     */
+    public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys + sql;
+        CachedStatement cached = statements.get(key);
+        if (cached != null && cached.evicted) {
+            statements.remove(key); // Failed to reset after its last use and has been closed
+            cached = null;
+        }
+        if (cached == null || cached.inUse) {
+            // The same SQL twice at once (e.g. a nested query) gets an ordinary statement rather than sharing the cached one
+            if (cached != null) {
+                return connection.prepareStatement(sql, autoGeneratedKeys);
+            }
+            cached = new CachedStatement(connection.prepareStatement(sql, autoGeneratedKeys));
+            statements.put(key, cached);
+            evict();
+        }
+        cached.inUse = true;
+        return cached.proxy;
+    }
+
+    // Method to close every cached statement, when the connection itself is closed
+    public void close() {
+        for (CachedStatement cached : statements.values()) {
+            cached.closeQuietly();
+        }
+        statements.clear();
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    private void evict() {
+        Iterator<CachedStatement> iterator = statements.values().iterator();
+        while (statements.size() > maxSize && iterator.hasNext()) {
+            CachedStatement cached = iterator.next();
+            iterator.remove();
+            if (cached.inUse) {
+                cached.evicted = true; // Closed for real once the borrower is done with it
+            } else {
+                cached.closeQuietly();
+            }
+        }
+    }
+
+
+    private static final class CachedStatement implements InvocationHandler {
+
+        private final PreparedStatement statement;
+        private final PreparedStatement proxy;
+        private final List<ResultSet> resultSets = new ArrayList<>(1);
+        private boolean inUse;
+        private boolean evicted;
+
+        private CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (inUse) {
+                    giveBack();
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return !inUse || statement.isClosed();
+            }
+            if (!inUse) {
+                throw new SQLException("This statement has already been closed");
+            }
+            try {
+                Object result = method.invoke(statement, args);
+                if (result instanceof ResultSet) {
+                    resultSets.add((ResultSet) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void giveBack() throws SQLException {
+            inUse = false;
+            try {
+                // An open result set keeps a streaming MySQL connection busy and an SQLite read snapshot alive
+                for (ResultSet resultSet : resultSets) {
+                    resultSet.close();
+                }
+                resultSets.clear();
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException e) {
+                evicted = true; // Do not hand out a statement in an unknown state again
+                throw e;
+            } finally {
+                if (evicted) {
+                    closeQuietly();
+                }
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // The statement is being thrown away anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.incendo.cloudpaper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+
+/**
+ * Immutable row of the 'tickets' table
+ */
+public final class Ticket {
+
+    // Column list shared by every ticket query so rows can be mapped by index instead of by name
+    public static final String COLUMNS = "ID, player_uuid, username, Description, Status, world, x_coord, y_coord, z_coord, pitch, yaw, creation_time, claimed_by, closed_by, closed_at";
+    // Columns of tickets_archive as migration 5 created it, in the order of COLUMNS. It stays fixed when a later migration adds
+    // a column to tickets, until a migration adds that column to tickets_archive too.
+    public static final String ARCHIVE_COLUMNS = "ID, player_uuid, username, Description, Status, world, x_coord, y_coord, z_coord, pitch, yaw, creation_time, claimed_by, closed_by, closed_at";
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final int id;
+    private final UUID playerUUID;
+    private final String username;
+    private final String description;
+    private final TicketStatus status;
+    private final String world;
+    private final double x;
+    private final double y;
+    private final double z;
+    private final float pitch;
+    private final float yaw;
+    private final long creationTime;
+    private final UUID claimedBy;
+    private final UUID closedBy;
+    private final long closedAt;
+
+    public Ticket(int id, UUID playerUUID, String username, String description, TicketStatus status, String world, double x, double y, double z, float pitch, float yaw, long creationTime, UUID claimedBy, UUID closedBy, long closedAt) {
+        this.id = id;
+        this.playerUUID = playerUUID;
+        this.username = username;
+        this.description = description;
+        this.status = status;
+        this.world = world;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.pitch = pitch;
+        this.yaw = yaw;
+        this.creationTime = creationTime;
+        this.claimedBy = claimedBy;
+        this.closedBy = closedBy;
+        this.closedAt = closedAt;
+    }
+
+
+    /**
+     * Method to map the current row of a result set selected with {@link #COLUMNS}
+     * @param resultSet Result set positioned on a ticket row
+     * @return Ticket for the row
+     * @throws SQLException If a column could not be read
+     */
+    public static Ticket fromRow(ResultSet resultSet) throws SQLException {
+        return new Ticket(
+                resultSet.getInt(1),
+                UUIDConverter.fromBytes(resultSet.getBytes(2)),
+                resultSet.getString(3),
+                resultSet.getString(4),
+                TicketStatus.fromColumn(resultSet.getString(5)),
+                resultSet.getString(6),
+                resultSet.getDouble(7),
+                resultSet.getDouble(8),
+                resultSet.getDouble(9),
+                (float) resultSet.getDouble(10),
+                (float) resultSet.getDouble(11),
+                resultSet.getLong(12),
+                UUIDConverter.fromBytes(resultSet.getBytes(13)),
+                UUIDConverter.fromBytes(resultSet.getBytes(14)),
+                resultSet.getLong(15)); // NULL reads as 0 for tickets that are not closed
+    }
+
+    /**
+     * Method to copy this ticket with another ID, e.g. the one the database gave a ticket built before it was inserted
+     * @param id ID of the copy
+     * @return Copy of this ticket with the given ID
+     */
+    public Ticket withId(int id) {
+        return new Ticket(id, playerUUID, username, description, status, world, x, y, z, pitch, yaw, creationTime, claimedBy, closedBy, closedAt);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public UUID getPlayerUUID() {
+        return playerUUID;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public TicketStatus getStatus() {
+        return status;
+    }
+
+    public String getWorld() {
+        return world;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+    public float getPitch() {
+        return pitch;
+    }
+
+    public float getYaw() {
+        return yaw;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public UUID getClaimedBy() {
+        return claimedBy;
+    }
+
+    public UUID getClosedBy() {
+        return closedBy;
+    }
+
+    /**
+     * @return When the ticket was closed in milliseconds since the epoch, or 0 if it is not closed
+     */
+    public long getClosedAt() {
+        return closedAt;
+    }
+
+    /**
+     * Method to format the creation time for display, only done when a ticket is actually rendered
+     * @return Creation time as yyyy-MM-dd HH:mm:ss in the server time zone
+     */
+    public String getFormattedDate() {
+        return DATE_FORMATTER.format(Instant.ofEpochMilli(creationTime));
+    }
+
+    /**
+     * Method to format the closing time for display
+     * @return Closing time as yyyy-MM-dd HH:mm:ss in the server time zone, or '-' if the ticket is not closed
+     */
+    public String getFormattedClosedDate() {
+        return closedAt > 0 ? DATE_FORMATTER.format(Instant.ofEpochMilli(closedAt)) : "-";
+    }
+
+    public boolean isOwnedBy(UUID uuid) {
+        return playerUUID.equals(uuid);
+    }
+
+    public boolean isClosed() {
+        return status == TicketStatus.CLOSED;
+    }
+
+    public boolean isClaimed() {
+        return status == TicketStatus.CLAIMED;
+    }
+
+    @Override
+    public String toString() {
+        return "Ticket{id=" + id + ", player=" + username + ", status=" + status + "}";
+    }
+}
@@ -0,0 +1,131 @@
+package org.incendo.cloudpaper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Bounded LRU cache of tickets by ID with a time to live, also remembering IDs that do not exist
+ */
+public class TicketCache {
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final LinkedHashMap<Integer, CachedTicket> entries;
+    // Bumped on every invalidation so a load that raced with a write does not put the old row back
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public TicketCache(int maxSize, long ttlMillis, long negativeTtlMillis) {
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.entries = new LinkedHashMap<Integer, CachedTicket>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CachedTicket> eldest) {
+                if (size() > TicketCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+
+    /**
+     * Method to get a ticket, loading and caching it on a miss
+     * @param ticketId ID of the ticket
+     * @param loader Loads the ticket from the database, returning null if it does not exist. Nothing is cached if it throws.
+     * @return The ticket, or null if it does not exist
+     */
+    public Ticket get(int ticketId, IntFunction<Ticket> loader) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            CachedTicket entry = entries.get(ticketId);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    hits.increment();
+                    return entry.ticket;
+                }
+                entries.remove(ticketId);
+            }
+        }
+        misses.increment();
+        long loadGeneration = generation.get();
+        Ticket ticket = loader.apply(ticketId);
+        synchronized (entries) {
+            if (generation.get() == loadGeneration) {
+                entries.put(ticketId, new CachedTicket(ticket, now + (ticket != null ? ttlMillis : negativeTtlMillis)));
+            }
+        }
+        return ticket;
+    }
+
+    /**
+     * Method to drop a ticket from the cache after it has been written
+     * @param ticketId ID of the ticket
+     */
+    public void invalidate(int ticketId) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.remove(ticketId);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return Fraction of lookups answered from the cache, between 0 and 1
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d/%d, hits=%d, misses=%d, evictions=%d, hit rate=%.1f%%", size(), maxSize, getHits(), getMisses(), getEvictions(), getHitRate() * 100);
+    }
+
+
+    private static final class CachedTicket {
+
+        private final Ticket ticket;
+        private final long expiresAt;
+
+        private CachedTicket(Ticket ticket, long expiresAt) {
+            this.ticket = ticket;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.incendo.cloudpaper;
+
+/**
+ * A row of the ticket_events change log, written in the same transaction as the change it describes
+ */
+public final class TicketEvent {
+
+    private final long sequence;
+    private final int ticketId;
+    private final Type type;
+    private final String nodeId;
+    private final long createdAt;
+
+    public TicketEvent(long sequence, int ticketId, Type type, String nodeId, long createdAt) {
+        this.sequence = sequence;
+        this.ticketId = ticketId;
+        this.type = type;
+        this.nodeId = nodeId;
+        this.createdAt = createdAt;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getTicketId() {
+        return ticketId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "TicketEvent{sequence=" + sequence + ", ticket=" + ticketId + ", type=" + type + ", node=" + nodeId + "}";
+    }
+
+
+    /**
+     * Values of the event column
+     */
+    public enum Type {
+
+        CREATED,
+        UPDATED,
+        CLAIMED,
+        CLOSED,
+        REOPENED,
+        ARCHIVED,
+        // Tickets were written in bulk, e.g. by an import, reload everything rather than one ticket (ticket ID 0)
+        RELOAD;
+
+        /**
+         * Method to read an event value
+         * @param value Value of the event column
+         * @return Matching type, or null if it was written by a newer version of the plugin
+         */
+        public static Type fromColumn(String value) {
+            for (Type type : values()) {
+                if (type.name().equals(value)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+}
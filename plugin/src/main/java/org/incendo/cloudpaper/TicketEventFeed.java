@@ -0,0 +1,116 @@
+package org.incendo.cloudpaper;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import static org.incendo.cloudpaper.Plugin.LOGGER;
+
+/**
+ * Follows the ticket_events change log written by every server sharing the database, so each server can update its
+ * in-memory state with the changes made on the others. Each poll only reads the events after the last one seen.
+ * <p>
+ * Sequence numbers are handed out when a transaction inserts its event, not when it commits, so a slower transaction can
+ * become visible after a later sequence number was already read. Holes below the high-water mark are therefore
+ * remembered and read again until they fill or are old enough to be a rolled back transaction.
+ */
+public class TicketEventFeed {
+
+    // Largest hole waited for, package-private so the tests can refer to it
+    static final long MAX_GAP = 1024L;
+
+    private final DatabaseManager databaseManager;
+    private final String nodeId;
+    private final Consumer<TicketEvent> listener;
+    private final int batchSize;
+    private final long gapTimeoutMillis;
+    // Guarded by this, an async timer can start a poll before the previous one has finished
+    private long highWaterMark = -1;
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();
+
+    /**
+     * @param databaseManager Database to read the change log from
+     * @param nodeId ID of this server, its own events are skipped because they were applied when they were made
+     * @param listener Called with every event from another server, in sequence order, on the polling thread
+     * @param batchSize Maximum number of events read per query
+     * @param gapTimeoutMillis How long a missing sequence number is waited for
+     */
+    public TicketEventFeed(DatabaseManager databaseManager, String nodeId, Consumer<TicketEvent> listener, int batchSize, long gapTimeoutMillis) {
+        this.databaseManager = databaseManager;
+        this.nodeId = nodeId;
+        this.listener = listener;
+        this.batchSize = Math.max(1, batchSize);
+        this.gapTimeoutMillis = gapTimeoutMillis;
+    }
+
+
+    /**
+     * Method to read and apply the events written since the last poll. The first poll only records where the log ends,
+     * the state loaded at startup already includes everything before it.
+     * @param now Current time in milliseconds
+     * @return Number of events applied
+     * @throws java.util.concurrent.CompletionException If the change log could not be read, the events applied before that
+     * stay applied and the next poll carries on after them
+     */
+    public synchronized int poll(long now) {
+        if (highWaterMark < 0) {
+            highWaterMark = databaseManager.getLatestEventSequence(); // Stays -1 if the query failed, so the next poll tries again
+            return 0;
+        }
+        expireGaps(now);
+        int applied = 0;
+        // Start below the oldest hole so late commits inside it are picked up, events already applied are skipped below
+        long from = gaps.isEmpty() ? highWaterMark : Math.min(highWaterMark, gaps.firstKey() - 1);
+        while (true) {
+            List<TicketEvent> events = databaseManager.getEventsAfter(from, batchSize);
+            for (TicketEvent event : events) {
+                long sequence = event.getSequence();
+                from = sequence;
+                if (sequence <= highWaterMark) {
+                    if (gaps.remove(sequence) == null) {
+                        continue; // Applied by an earlier poll
+                    }
+                } else {
+                    // Auto increment can also jump ahead after a restart, only wait for holes of a plausible size
+                    long firstMissing = Math.max(highWaterMark + 1, sequence - MAX_GAP);
+                    for (long missing = firstMissing; missing < sequence; missing++) {
+                        gaps.put(missing, now);
+                    }
+                    highWaterMark = sequence;
+                }
+                if (!nodeId.equals(event.getNodeId()) && event.getType() != null) {
+                    try {
+                        listener.accept(event);
+                        applied++;
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Could not apply " + event, e);
+                    }
+                }
+            }
+            if (events.size() < batchSize) {
+                return applied;
+            }
+        }
+    }
+
+    public synchronized long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public synchronized int getGapCount() {
+        return gaps.size();
+    }
+
+    private void expireGaps(long now) {
+        // A hole still open after the timeout belongs to a rolled back transaction, or a commit slower than we wait for
+        Iterator<Map.Entry<Long, Long>> iterator = gaps.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getValue() > gapTimeoutMillis) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package org.incendo.cloudpaper;
 
 import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.JoinConfiguration;
+import net.kyori.adventure.text.event.ClickEvent;
+import net.kyori.adventure.text.format.NamedTextColor;
 import net.kyori.adventure.text.minimessage.MiniMessage;
-import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.OfflinePlayer;
@@ -17,7 +19,16 @@ import org.jetbrains.annotations.NotNull;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 import java.util.logging.Level;
 
 import static org.incendo.cloudpaper.Plugin.LOGGER;
@@ -27,20 +38,46 @@ public class TicketManager implements CommandExecutor, TabCompleter, Listener {
     private final Plugin plugin;
     private final DatabaseManager databaseManager;
     private final MiniMessage miniMessage;
-    private final HashMap<UUID, Long> cooldowns = new HashMap<>();
-    private final FileConfiguration config;
+    private final CommandRateLimiter rateLimiter;
+    // Replaced as a whole by reloadIndexes, so /ticket near never sees a half-loaded index
+    private volatile SpatialIndex spatialIndex = new SpatialIndex();
+    private final TicketTabCompleter tabCompleter;
+    // Both are replaced as a whole by /ticket reload, handlers read them once per message
+    private volatile FileConfiguration config;
+    private volatile MessageCatalog messages;
+    // Help and chat menus only depend on the permissions of the player, so players with the same permissions share one
+    private static final Object OP_MENU_KEY = new Object();
+    private final Map<Object, Component> helpMenus = new ConcurrentHashMap<>();
+    private final Map<Object, Component> chatMenus = new ConcurrentHashMap<>();
     private final DiscordManager discordManager;
     private final PermissonsManager permissonsManager;
+    private final AsyncManager asyncManager;
+    private final WriteBehindQueue writeQueue;
+    private final Metrics metrics;
+    // Subcommand latencies, measured from onCommand until the reply has been sent
+    private final Map<String, Metrics.Timer> commandTimers = new HashMap<>();
 
-    public TicketManager(Plugin plugin, DatabaseManager databaseManager, PermissonsManager permissonsManager, FileConfiguration config) {
+    public TicketManager(Plugin plugin, DatabaseManager databaseManager, PermissonsManager permissonsManager, AsyncManager asyncManager, WriteBehindQueue writeQueue, DiscordManager discordManager, Metrics metrics, FileConfiguration config) {
         this.plugin = plugin;
         this.databaseManager = databaseManager;
         this.permissonsManager = permissonsManager;
+        this.asyncManager = asyncManager;
+        this.writeQueue = writeQueue;
         this.miniMessage = MiniMessage.miniMessage();
         this.config = config;
-        this.discordManager = new DiscordManager(config);
+        this.messages = MessageCatalog.load(config, miniMessage);
+        this.discordManager = discordManager;
+        this.tabCompleter = new TicketTabCompleter(permissonsManager);
+        this.metrics = metrics;
+        this.rateLimiter = new CommandRateLimiter(config, System.currentTimeMillis());
+        metrics.gauge("ticket_rate_limited_players", rateLimiter::size);
+        metrics.gauge("ticket_spatial_index_size", () -> spatialIndex.size());
+        for (String subCommand : new String[]{"create", "list", "update", "close", "reopen", "teleport", "help", "group", "claim", "reload", "stats", "near", "search", "history", "export", "import", "unknown"}) {
+            commandTimers.put(subCommand, metrics.timer("ticket_command_seconds", "subcommand", subCommand));
+        }
         Objects.requireNonNull(Bukkit.getPluginCommand("ticket")).setExecutor(this);
         Bukkit.getPluginManager().registerEvents(this, plugin);
+        permissonsManager.onPermissionsChanged(this::invalidateMenus);
     }
 
     @Override
@@ -51,78 +88,326 @@ public class TicketManager implements CommandExecutor, TabCompleter, Listener {
         }
         Player player = (Player) commandSender;
         if (label.equalsIgnoreCase("ticket")) {
-            int cooldownTime = config.getInt("command-cooldown");
-            if (cooldowns.containsKey(player.getUniqueId()) && cooldowns.get(player.getUniqueId()) > System.currentTimeMillis()) {
-                player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("command-cooldown-msg")), Placeholder.parsed("cooldowntime", String.valueOf(cooldownTime))));
+            // The menu shown for a bare /ticket shares the bucket of /ticket help
+            String limited = args.length == 0 ? "help" : args[0].equalsIgnoreCase("tp") ? "teleport" : args[0];
+            long wait = rateLimiter.tryAcquire(player.getUniqueId(), limited, System.currentTimeMillis());
+            if (wait > 0) {
+                player.sendMessage(messages.render("command-cooldown-msg", String.valueOf((wait + 999) / 1000)));
                 return true;
             }
             if (args.length == 0) {
                 handleTicketChatUI(player);
             } else {
+                UUID playerUUID = player.getUniqueId();
+                if (!asyncManager.tryAcquire(playerUUID)) {
+                    player.sendMessage(messages.get("command-busy"));
+                    return true;
+                }
+                // Handlers do their database and webhook work on the I/O executor and only come back to the main thread to reply
+                CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+                String subCommand = args[0];
+                Metrics.Timer timer = commandTimer(subCommand);
+                long started = System.nanoTime();
                 try {
-                    String subCommand = args[0];
                     if (subCommand.equalsIgnoreCase("create")) {
-                        handleTicketCreation(player, args);
+                        result = handleTicketCreation(player, args);
                     } else if (subCommand.equalsIgnoreCase("list")) {
-                        handleTicketList(player);
+                        result = handleTicketList(player, args);
                     } else if (subCommand.equalsIgnoreCase("update")) {
-                        handleTicketUpdate(player, args);
+                        result = handleTicketUpdate(player, args);
                     } else if (subCommand.equalsIgnoreCase("close")) {
-                        handleTicketClose(player, args);
+                        result = handleTicketClose(player, args);
                     } else if (subCommand.equalsIgnoreCase("reopen")) {
-                        handleTicketReopen(player, args);
+                        result = handleTicketReopen(player, args);
                     } else if (subCommand.equalsIgnoreCase("teleport") || subCommand.equalsIgnoreCase("tp")) {
-                        handleTeleport(player, args);
+                        result = handleTeleport(player, args);
                     } else if (subCommand.equalsIgnoreCase("help")) {
                         sendHelpMessage(player);
                     } else if (subCommand.equalsIgnoreCase("group")) {
                         handleTicketGroups(player, args);
                     } else if (subCommand.equalsIgnoreCase("claim")) {
-                        handleTicketClaim(player, args);
-                    }
-                    if (!subCommand.equalsIgnoreCase("help")) {
-                        cooldowns.put(player.getUniqueId(), System.currentTimeMillis() + cooldownTime * 1000L);
+                        result = handleTicketClaim(player, args);
+                    } else if (subCommand.equalsIgnoreCase("reload")) {
+                        handleReload(player);
+                    } else if (subCommand.equalsIgnoreCase("stats")) {
+                        handleStats(player);
+                    } else if (subCommand.equalsIgnoreCase("near")) {
+                        result = handleNear(player, args);
+                    } else if (subCommand.equalsIgnoreCase("search")) {
+                        handleSearch(player, args);
+                    } else if (subCommand.equalsIgnoreCase("history")) {
+                        result = handleHistory(player, args);
+                    } else if (subCommand.equalsIgnoreCase("export")) {
+                        result = handleExport(player, args);
+                    } else if (subCommand.equalsIgnoreCase("import")) {
+                        result = handleImport(player, args);
                     }
                 } catch (Exception e) {
+                    timer.error();
                     e.printStackTrace();
+                    player.sendMessage(messages.get("command-failed"));
                 }
+                result.whenComplete((ignored, throwable) -> {
+                    asyncManager.release(playerUUID);
+                    timer.record(started);
+                    if (throwable != null) {
+                        timer.error();
+                        handleAsyncFailure(player, throwable);
+                    }
+                });
             }
         }
         return true;
     }
 
 
+    /**
+     * Method to load the in-memory indexes from the database in the background, called once the database is connected
+     */
+    public void loadIndexes() {
+        asyncManager.runAsync(this::fillIndexes);
+    }
+
+    /**
+     * Method to rebuild the in-memory indexes from scratch, after tickets were written behind their back, e.g. by an import.
+     * Merging into the old indexes would keep tickets that were closed, archived or replaced in the meantime.
+     * New indexes are built in the background and swapped in when complete, commands use the old ones until then.
+     */
+    public void reloadIndexes() {
+        asyncManager.runAsync(() -> {
+            SpatialIndex reloaded = new SpatialIndex();
+            if (databaseManager.forEachOpenTicketLocation(reloaded::add)) {
+                spatialIndex = reloaded;
+                LOGGER.info("Reindexed the locations of " + reloaded.size() + " open tickets");
+            }
+            databaseManager.reloadSearchIndex();
+        });
+    }
+
+    private void fillIndexes() {
+        databaseManager.forEachOpenTicketLocation(spatialIndex::add);
+        LOGGER.info("Indexed the locations of " + spatialIndex.size() + " open tickets");
+        databaseManager.loadSearchIndex();
+    }
+
+
+    /**
+     * Method to apply a ticket change made by another server sharing the database, called from the sync task
+     * @param event Event read from ticket_events
+     */
+    public void applyEvent(TicketEvent event) {
+        int id = event.getTicketId();
+        databaseManager.getTicketCache().invalidate(id);
+        switch (event.getType()) {
+            case CREATED:
+            case REOPENED: {
+                // The row is read as it is now, a later event for the same ticket will be applied on top of it
+                Ticket ticket = databaseManager.getTicket(id);
+                if (ticket == null || ticket.isClosed()) {
+                    break;
+                }
+                spatialIndex.add(id, ticket.getWorld(), ticket.getX(), ticket.getY(), ticket.getZ());
+                if (event.getType() == TicketEvent.Type.CREATED) {
+                    databaseManager.getSearchIndex().add(id, ticket.getUsername(), ticket.getDescription());
+                    notifyStaff(ticket);
+                }
+                break;
+            }
+            case UPDATED: {
+                Ticket ticket = databaseManager.getTicket(id);
+                if (ticket != null) {
+                    databaseManager.getSearchIndex().updateDescription(id, ticket.getDescription());
+                }
+                break;
+            }
+            case CLOSED:
+                spatialIndex.remove(id);
+                break;
+            case ARCHIVED:
+                spatialIndex.remove(id);
+                databaseManager.getSearchIndex().remove(id);
+                break;
+            case RELOAD:
+                databaseManager.getTicketCache().invalidateAll();
+                reloadIndexes();
+                break;
+            default:
+                break; // Claims only change the cached row
+        }
+    }
+
+
+    /**
+     * Method to tell the online players with ticket.notify about a new ticket, except the player who created it
+     * @param ticket The new ticket
+     */
+    private void notifyStaff(Ticket ticket) {
+        Component message = messages.render("ticket-notify-created", String.valueOf(ticket.getId()), ticket.getUsername(), ticket.getDescription())
+                .clickEvent(ClickEvent.runCommand("/ticket tp " + ticket.getId()));
+        asyncManager.mainThread().execute(() -> {
+            for (Player online : Bukkit.getOnlinePlayers()) {
+                if (!online.getUniqueId().equals(ticket.getPlayerUUID()) && permissonsManager.checkPermission(online, "ticket.notify")) {
+                    online.sendMessage(message);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Method to get the latency timer of a subcommand
+     * @param subCommand Subcommand as typed
+     * @return Timer of the subcommand, or of 'unknown' for anything that is not a subcommand
+     */
+    private Metrics.Timer commandTimer(String subCommand) {
+        String name = subCommand.toLowerCase();
+        Metrics.Timer timer = commandTimers.get(name.equals("tp") ? "teleport" : name);
+        return timer != null ? timer : commandTimers.get("unknown");
+    }
+
+
+    /**
+     * Method to report a failed async command stage
+     * @param player Player who issued the command
+     * @param throwable Failure raised by the command stage
+     */
+    private void handleAsyncFailure(Player player, Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        if (cause instanceof RejectedExecutionException) {
+            asyncManager.mainThread().execute(() -> player.sendMessage(messages.get("server-busy")));
+            return;
+        }
+        LOGGER.log(Level.SEVERE, "Ticket command failed for " + player.getName(), cause);
+        // The command would otherwise end without any answer, the details are in the server log
+        asyncManager.mainThread().execute(() -> player.sendMessage(messages.get("command-failed")));
+    }
+
+
+    /**
+     * Method to send the result of an async command stage to the player on the main thread
+     * @param player Player who issued the command
+     * @param message Future holding the message to send, or null for no message
+     * @return Future completed once the message has been sent
+     */
+    private CompletableFuture<Void> reply(Player player, CompletableFuture<Component> message) {
+        return message.thenAcceptAsync(component -> {
+            if (component != null) {
+                player.sendMessage(component);
+            }
+        }, asyncManager.mainThread());
+    }
+
+
+    /**
+     * Method to send the result of an async command stage that waits on a queued database write
+     * @param player Player who issued the command
+     * @param message Future holding the future of the message to send
+     * @return Future completed once the message has been sent
+     */
+    private CompletableFuture<Void> replyAfterWrite(Player player, CompletableFuture<CompletableFuture<Component>> message) {
+        return reply(player, message.thenCompose(Function.identity()));
+    }
+
+
+    /**
+     * Method to post a ticket event to Discord, the post is queued and sent from the Discord dispatcher thread
+     * @param event Event name
+     * @param id Ticket ID
+     * @param userId User who triggered the event
+     * @param message Event message
+     */
+    private void postToDiscord(String event, String id, String userId, String message) {
+        discordManager.PostTicketToDiscord(event, id, userId, message, config.getString("discord-id"));
+    }
+
+
     /**
      * Method to handle ticket claiming
      * @param player Player who is claiming the ticket
      * @param args Arguments passed to the command
      */
-    private void handleTicketClaim(Player player, String[] args) {
+    private CompletableFuture<Void> handleTicketClaim(Player player, String[] args) {
         if (!permissonsManager.checkPermission(player, "ticket.claim")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("command-no-permission"))));
-            return;
+            player.sendMessage(messages.get("command-no-permission"));
+            return CompletableFuture.completedFuture(null);
         }
         if (args.length < 2) {
-            player.sendMessage(miniMessage.deserialize("<red>Usage: /ticket claim <id></red>"));
-            return;
+            player.sendMessage(messages.literal("<red>Usage: /ticket claim <id></red>"));
+            return CompletableFuture.completedFuture(null);
         }
         int id = Integer.parseInt(args[1]);
-        if (!databaseManager.ticketExists(id)) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("invalid-ticket-id")))); // Notify player of invalid ticket ID
+        UUID playerUUID = player.getUniqueId();
+        String playerName = player.getName();
+        return reply(player, asyncManager.supplyAsync(() -> {
+            if (transition(() -> databaseManager.claimTicket(id, playerUUID))) {
+                postToDiscord("Claim", String.valueOf(id), playerName, playerName + " claimed a ticket");
+                return messages.get("ticket-claimed");
+            }
+            // The claim did not apply, read the row to tell the player why
+            Ticket ticket = databaseManager.getTicketInfo(id);
+            if (ticket == null) {
+                return messages.get("invalid-ticket-id"); // Notify player of invalid ticket ID
+            }
+            if (ticket.isClosed()) {
+                return messages.literal("<red>Ticket is already closed!</red>");
+            }
+            return messages.literal("<red>Ticket is already claimed!</red>");
+        }));
+    }
+
+
+    /**
+     * Method to reload config.yml and swap in a freshly parsed message catalog
+     * @param player Player who issued the command
+     */
+    private void handleReload(Player player) {
+        if (!permissonsManager.checkPermission(player, "ticket.reload")) {
+            player.sendMessage(messages.get("command-no-permission"));
             return;
         }
-        HashMap<String, String> ticketInfo = databaseManager.getTicketInfo(id);
-        if (ticketInfo.get("Status").contains("closed")) {
-            player.sendMessage(miniMessage.deserialize("<red>Ticket is already closed!</red>"));
+        plugin.reloadConfig();
+        FileConfiguration reloaded = plugin.getConfig();
+        MessageCatalog catalog = MessageCatalog.load(reloaded, miniMessage);
+        config = reloaded;
+        messages = catalog;
+        rateLimiter.configure(reloaded);
+        invalidateMenus();
+        LOGGER.info(player.getName() + " reloaded the config, " + catalog.size() + " messages loaded");
+        player.sendMessage(catalog.get("config-reloaded"));
+    }
+
+
+    /**
+     * Method to show the latency of every subcommand, database query and Discord post measured so far
+     * @param player Player who issued the command
+     */
+    private void handleStats(Player player) {
+        if (!permissonsManager.checkPermission(player, "ticket.stats")) {
+            player.sendMessage(messages.get("command-no-permission"));
             return;
         }
-        if (ticketInfo.get("Status").contains("claimed")) {
-            player.sendMessage(miniMessage.deserialize("<red>Ticket is already claimed!</red>"));
-            return;
+        MessageCatalog catalog = messages;
+        List<Component> lines = new ArrayList<>();
+        lines.add(catalog.get("stats-header"));
+        for (Metrics.Timer timer : metrics.getTimers()) {
+            LatencyHistogram histogram = timer.getHistogram();
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            // e.g. 'ticket_db_query_seconds' and 'get_ticket' are shown as 'db_query get_ticket'
+            String name = timer.getName().replace("ticket_", "").replace("_seconds", "") + " " + timer.getValue();
+            lines.add(catalog.render("stats-line", name, String.valueOf(histogram.getCount()), String.valueOf(timer.getErrors()),
+                    formatMillis(timer.getQuantileMillis(0.5)), formatMillis(timer.getQuantileMillis(0.99)),
+                    formatMillis(histogram.getMax() / 1_000_000.0)));
         }
-        databaseManager.updateTicket(id, ticketInfo.get("Description"), "claimed by " + player.getName());
-        player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("ticket-claimed"))));
-        discordManager.PostTicketToDiscord("Claim", String.valueOf(id), player.getName(), player.getName() + " claimed a ticket", config.getString("discord-id"));
+        if (lines.size() == 1) {
+            lines.add(catalog.get("stats-empty"));
+        }
+        player.sendMessage(Component.join(JoinConfiguration.newlines(), lines));
+    }
+
+    private static String formatMillis(double millis) {
+        return String.format(Locale.ROOT, millis < 10 ? "%.2f" : "%.0f", millis);
     }
 
 
@@ -133,11 +418,11 @@ public class TicketManager implements CommandExecutor, TabCompleter, Listener {
      */
     private void handleTicketGroups(Player player, String[] args) {
         if (!permissonsManager.checkPermission(player, "ticket.group")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("command-no-permission"))));
+            player.sendMessage(messages.get("command-no-permission"));
             return;
         }
         if (args.length < 3) {
-            player.sendMessage(miniMessage.deserialize("<red>Usage: /ticket group <group_name> <username></red>"));
+            player.sendMessage(messages.literal("<red>Usage: /ticket group <group_name> <username></red>"));
             return;
         }
         String groupName = args[1];
@@ -154,12 +439,12 @@ public class TicketManager implements CommandExecutor, TabCompleter, Listener {
             targetUsername = target.getName();
         }
         if (!permissonsManager.getRoleNames().contains(groupName)) {
-            player.sendMessage(miniMessage.deserialize("<red>Invalid group name '" + groupName + "'."));
+            player.sendMessage(Component.text("Invalid group name '" + groupName + "'.", NamedTextColor.RED));
             return;
         }
         permissonsManager.removePlayerFromAllGroups(targetUUID);
         permissonsManager.addPlayerToGroup(targetUUID, groupName);
-        player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("group-updated")), Placeholder.parsed("username", username), Placeholder.parsed("groupname", groupName)));
+        player.sendMessage(messages.render("group-updated", username, groupName));
     }
 
 
@@ -168,28 +453,32 @@ public class TicketManager implements CommandExecutor, TabCompleter, Listener {
      * @param player Player who issued the command
      * @param args Arguments passed to the command
      */
-    private void handleTicketReopen(Player player, String[] args) {
+    private CompletableFuture<Void> handleTicketReopen(Player player, String[] args) {
         if (!permissonsManager.checkPermission(player, "ticket.reopen")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("command-no-permission"))));
-            return;
+            player.sendMessage(messages.get("command-no-permission"));
+            return CompletableFuture.completedFuture(null);
         }
         if (args.length < 2) {
-            player.sendMessage(miniMessage.deserialize("<red>Usage: /ticket reopen <id></red>"));
-            return;
+            player.sendMessage(messages.literal("<red>Usage: /ticket reopen <id></red>"));
+            return CompletableFuture.completedFuture(null);
         }
         int id = Integer.parseInt(args[1]);
-        if (!databaseManager.ticketExists(id)) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("invalid-ticket-id")))); // Notify player of invalid ticket ID
-            return;
-        }
-        HashMap<String, String> ticketInfo = databaseManager.getTicketInfo(id);
-        if (ticketInfo.get("Status").contains("open")) {
-            player.sendMessage(miniMessage.deserialize("<red>Ticket is already open!</red>"));
-            return;
-        }
-        databaseManager.updateTicket(id, ticketInfo.get("Description"), "open");
-        player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("ticket-reopened"))));
-        discordManager.PostTicketToDiscord("Reopen", String.valueOf(id), player.getUniqueId().toString(), player.getName() + " reopened a ticket", config.getString("discord-id"));
+        UUID playerUUID = player.getUniqueId();
+        String playerName = player.getName();
+        return reply(player, asyncManager.supplyAsync(() -> {
+            if (transition(() -> databaseManager.reopenTicket(id))) {
+                Ticket reopened = databaseManager.getTicket(id);
+                if (reopened != null) {
+                    spatialIndex.add(id, reopened.getWorld(), reopened.getX(), reopened.getY(), reopened.getZ());
+                }
+                postToDiscord("Reopen", String.valueOf(id), playerUUID.toString(), playerName + " reopened a ticket");
+                return messages.get("ticket-reopened");
+            }
+            if (databaseManager.getTicketInfo(id) == null) {
+                return messages.get("invalid-ticket-id"); // Notify player of invalid ticket ID
+            }
+            return messages.literal("<red>Ticket is already open!</red>");
+        }));
     }
 
 
@@ -198,70 +487,278 @@ public class TicketManager implements CommandExecutor, TabCompleter, Listener {
      * @param player Player who issued the command
      * @param args Arguments passed to the command
      */
-    private void handleTicketClose(Player player, String[] args) {
+    private CompletableFuture<Void> handleTicketClose(Player player, String[] args) {
         if (!permissonsManager.checkPermission(player, "ticket.close")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("command-no-permission"))));
-            return;
+            player.sendMessage(messages.get("command-no-permission"));
+            return CompletableFuture.completedFuture(null);
         }
         if (args.length < 2) {
-            player.sendMessage(miniMessage.deserialize("<red>Usage: /ticket close <id></red>"));
-            return;
+            player.sendMessage(messages.literal("<red>Usage: /ticket close <id></red>"));
+            return CompletableFuture.completedFuture(null);
+        }
+        int id = Integer.parseInt(args[1]);
+        UUID playerUUID = player.getUniqueId();
+        return reply(player, asyncManager.supplyAsync(() -> {
+            // Players can only close their own tickets, the owner check is part of the conditional update
+            if (transition(() -> databaseManager.closeTicket(id, playerUUID, playerUUID))) {
+                spatialIndex.remove(id);
+                postToDiscord("Close", String.valueOf(id), playerUUID.toString(), "closed by creator");
+                return messages.get("ticket-closed");
+            }
+            Ticket ticket = databaseManager.getTicketInfo(id);
+            if (ticket == null) {
+                return messages.get("invalid-ticket-id"); // Notify player of invalid ticket ID
+            }
+            if (!ticket.isOwnedBy(playerUUID)) {
+                return messages.get("ticket-not-owned-by-you");
+            }
+            return messages.literal("<red>Ticket is already closed!</red>");
+        }));
+    }
+
+
+    /**
+     * Method to handle teleporting to a ticket location
+     * @param player Player who issued the command
+     * @param args Arguments passed to the command
+     */
+    private CompletableFuture<Void> handleTeleport(Player player, String[] args) {
+        if (!permissonsManager.checkPermission(player, "ticket.teleport")) {
+            player.sendMessage(messages.get("command-no-permission"));
+            return CompletableFuture.completedFuture(null);
+        }
+        if (args.length < 2) {
+            player.sendMessage(messages.literal("<red>Usage: /ticket teleport <id></red>"));
+            return CompletableFuture.completedFuture(null);
         }
         int id = Integer.parseInt(args[1]);
-        if (!databaseManager.ticketExists(id)) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("invalid-ticket-id")))); // Notify player of invalid ticket ID
+        return asyncManager.supplyAsync(() -> databaseManager.getTicket(id)).thenAcceptAsync(ticket -> {
+            if (ticket == null) {
+                player.sendMessage(messages.get("invalid-ticket-id"));
+                return;
+            }
+            World world = getWorldByWorldName(ticket.getWorld());
+            if (world == null) {
+                LOGGER.log(Level.SEVERE, "Invalid world name '" + ticket.getWorld() + "' found in the database!");
+                return;
+            }
+            Location location = new Location(world, ticket.getX(), ticket.getY(), ticket.getZ(), ticket.getYaw(), ticket.getPitch());
+            player.teleport(location);
+            String locationString = "World: " + ticket.getWorld() + ", X: " + (int) ticket.getX() + ", Y: " + (int) ticket.getY() + ", Z: " + (int) ticket.getZ();
+            player.sendMessage(messages.render("teleported-to-ticket", locationString));
+        }, asyncManager.mainThread());
+    }
+
+
+    /**
+     * Method to list the open tickets closest to the player
+     * @param player Player who issued the command
+     * @param args Arguments passed to the command, optionally the radius in blocks
+     */
+    private CompletableFuture<Void> handleNear(Player player, String[] args) {
+        if (!permissonsManager.checkPermission(player, "ticket.near")) {
+            player.sendMessage(messages.get("command-no-permission"));
+            return CompletableFuture.completedFuture(null);
+        }
+        int maxRadius = Math.max(1, config.getInt("ticket-near-max-radius", 512));
+        int radius = args.length >= 2 ? Integer.parseInt(args[1]) : config.getInt("ticket-near-radius", 64);
+        radius = Math.max(1, Math.min(radius, maxRadius));
+        Location location = player.getLocation();
+        // The index lookup is in memory, only the ticket details are read on the I/O thread
+        List<SpatialIndex.Match> matches = spatialIndex.findNearest(player.getWorld().getName(), location.getX(), location.getY(), location.getZ(),
+                radius, Math.max(1, config.getInt("ticket-near-limit", 10)));
+        String radiusText = String.valueOf(radius);
+        if (matches.isEmpty()) {
+            player.sendMessage(messages.render("ticket-near-none", radiusText));
+            return CompletableFuture.completedFuture(null);
+        }
+        return reply(player, asyncManager.supplyAsync(() -> {
+            List<Component> lines = new ArrayList<>(matches.size() + 1);
+            lines.add(messages.render("ticket-near-head", radiusText));
+            for (SpatialIndex.Match match : matches) {
+                Ticket ticket = databaseManager.getTicket(match.getTicketId());
+                if (ticket == null || ticket.getStatus() == TicketStatus.CLOSED) {
+                    continue;
+                }
+                lines.add(messages.render("ticket-near-entry", String.valueOf(ticket.getId()), String.valueOf((int) Math.round(match.getDistance())),
+                                ticket.getUsername(), ticket.getDescription())
+                        .clickEvent(ClickEvent.runCommand("/ticket tp " + ticket.getId())));
+            }
+            return Component.join(JoinConfiguration.newlines(), lines);
+        }));
+    }
+
+
+    /**
+     * Method to search the descriptions and usernames of all tickets. Runs on the main thread, the index is in memory.
+     * @param player Player who issued the command
+     * @param args Arguments passed to the command, the words to search for
+     */
+    private void handleSearch(Player player, String[] args) {
+        if (!permissonsManager.checkPermission(player, "ticket.search")) {
+            player.sendMessage(messages.get("command-no-permission"));
             return;
         }
-        HashMap<String, String> ticketInfo = databaseManager.getTicketInfo(id);
-        if (!checkPlayerOwnsTicket(player, ticketInfo)) {
+        if (args.length < 2) {
+            player.sendMessage(messages.literal("<red>Usage: /ticket search <words></red>"));
             return;
         }
-        if (ticketInfo.get("Status").contains("closed")) {
-            player.sendMessage(miniMessage.deserialize("<red>Ticket is already closed!</red>"));
+        String query = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+        List<SearchIndex.Result> results = databaseManager.getSearchIndex().search(query, Math.max(1, config.getInt("ticket-search-limit", 10)));
+        if (results.isEmpty()) {
+            player.sendMessage(messages.render("ticket-search-none", query));
             return;
         }
-        String newStatus = "closed by admin";
-        if (ticketInfo.get("player_uuid").equalsIgnoreCase(player.getUniqueId().toString())) {
-            newStatus = "closed by creator";
+        List<Component> lines = new ArrayList<>(results.size() + 1);
+        lines.add(messages.render("ticket-search-head", query));
+        for (SearchIndex.Result result : results) {
+            lines.add(messages.render("ticket-search-entry", String.valueOf(result.getTicketId()), result.getUsername(), result.getDescription())
+                    .clickEvent(ClickEvent.runCommand("/ticket tp " + result.getTicketId())));
         }
-        databaseManager.updateTicket(id, ticketInfo.get("Description"), newStatus);
-        player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("ticket-closed"))));
-        discordManager.PostTicketToDiscord("Close", String.valueOf(id), player.getUniqueId().toString(), newStatus, config.getString("discord-id"));
+        player.sendMessage(Component.join(JoinConfiguration.newlines(), lines));
     }
 
 
     /**
-     * Method to handle teleporting to a ticket location
+     * Method to show everything known about a ticket, reading the archive for tickets that have been moved there
      * @param player Player who issued the command
      * @param args Arguments passed to the command
      */
-    private void handleTeleport(Player player, String[] args) {
-        if (!permissonsManager.checkPermission(player, "ticket.teleport")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("command-no-permission"))));
-            return;
+    private CompletableFuture<Void> handleHistory(Player player, String[] args) {
+        if (!permissonsManager.checkPermission(player, "ticket.history")) {
+            player.sendMessage(messages.get("command-no-permission"));
+            return CompletableFuture.completedFuture(null);
         }
         if (args.length < 2) {
-            player.sendMessage(miniMessage.deserialize("<red>Usage: /ticket teleport <id></red>"));
-            return;
+            player.sendMessage(messages.literal("<red>Usage: /ticket history <id></red>"));
+            return CompletableFuture.completedFuture(null);
         }
         int id = Integer.parseInt(args[1]);
-        if (!databaseManager.ticketExists(id)) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("invalid-ticket-id"))));
-            return;
+        UUID playerUUID = player.getUniqueId();
+        boolean anyTicket = permissonsManager.checkPermission(player, "ticket.history.others");
+        return reply(player, asyncManager.supplyAsync(() -> {
+            boolean archived = false;
+            Ticket ticket = databaseManager.getTicket(id);
+            if (ticket == null) {
+                ticket = databaseManager.getArchivedTicket(id);
+                archived = ticket != null;
+            }
+            if (ticket == null) {
+                return messages.get("invalid-ticket-id"); // Notify player of invalid ticket ID
+            }
+            if (!anyTicket && !ticket.isOwnedBy(playerUUID)) {
+                return messages.get("ticket-not-owned-by-you");
+            }
+            return messages.render("ticket-history", String.valueOf(ticket.getId()), ticket.getUsername(),
+                    ticket.getStatus().name() + (archived ? " (archived)" : ""), ticket.getFormattedDate(),
+                    playerName(ticket.getClaimedBy()), playerName(ticket.getClosedBy()), ticket.getFormattedClosedDate(), ticket.getDescription());
+        }));
+    }
+
+    /**
+     * Method to export every ticket to a file in the transfers folder, streamed so the table is never held in memory
+     * @param player Player who issued the command
+     * @param args Arguments passed to the command, the file name
+     */
+    private CompletableFuture<Void> handleExport(Player player, String[] args) {
+        if (!permissonsManager.checkPermission(player, "ticket.export")) {
+            player.sendMessage(messages.get("command-no-permission"));
+            return CompletableFuture.completedFuture(null);
         }
-        HashMap<String, String> ticketInfo = databaseManager.getTicketInfo(id);
-        double x = Double.parseDouble(ticketInfo.get("x_coord"));
-        double y = Double.parseDouble(ticketInfo.get("y_coord"));
-        double z = Double.parseDouble(ticketInfo.get("z_coord"));
-        World world = getWorldByWorldName(ticketInfo.get("world"));
-        if (world == null) {
-            LOGGER.log(Level.SEVERE, "Invalid world name '" + ticketInfo.get("world") + "' found in the database!");
-            return;
+        if (args.length < 2) {
+            player.sendMessage(messages.literal("<red>Usage: /ticket export <file.csv|file.ndjson>[.gz]</red>"));
+            return CompletableFuture.completedFuture(null);
+        }
+        File file = transferFile(args[1]);
+        if (file == null) {
+            player.sendMessage(messages.render("transfer-bad-file", args[1]));
+            return CompletableFuture.completedFuture(null);
         }
-        Location location = new Location(world, x, y, z, Float.parseFloat(ticketInfo.get("yaw")), Float.parseFloat(ticketInfo.get("pitch")));
-        player.teleport(location);
-        String locationString = "World: " + ticketInfo.get("world") + ", X: " + (int) x + ", Y: " + (int) y + ", Z: " + (int) z;
-        player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("teleported-to-ticket")), Placeholder.parsed("locationstring", locationString)));
+        TicketTransfer transfer = newTransfer();
+        return reply(player, asyncManager.supplyAsync(() -> {
+            try (Connection connection = databaseManager.getConnection()) {
+                long rows = transfer.exportTo(connection, file);
+                LOGGER.info(player.getName() + " exported " + rows + " tickets to " + file);
+                return messages.render("transfer-exported", String.valueOf(rows), file.getName());
+            } catch (SQLException | IOException e) {
+                LOGGER.log(Level.WARNING, "Could not export tickets to " + file, e);
+                return messages.render("transfer-failed", e.getMessage());
+            }
+        }));
+    }
+
+    /**
+     * Method to import tickets from a file in the transfers folder, keeping their IDs and skipping IDs that already exist
+     * @param player Player who issued the command
+     * @param args Arguments passed to the command, the file name
+     */
+    private CompletableFuture<Void> handleImport(Player player, String[] args) {
+        if (!permissonsManager.checkPermission(player, "ticket.import")) {
+            player.sendMessage(messages.get("command-no-permission"));
+            return CompletableFuture.completedFuture(null);
+        }
+        if (args.length < 2) {
+            player.sendMessage(messages.literal("<red>Usage: /ticket import <file.csv|file.ndjson>[.gz]</red>"));
+            return CompletableFuture.completedFuture(null);
+        }
+        File file = transferFile(args[1]);
+        if (file == null || !file.isFile()) {
+            player.sendMessage(messages.render("transfer-bad-file", args[1]));
+            return CompletableFuture.completedFuture(null);
+        }
+        TicketTransfer transfer = newTransfer();
+        return reply(player, asyncManager.supplyAsync(() -> {
+            try {
+                TicketTransfer.Result result = transfer.importFrom(databaseManager::getWriteConnection, file);
+                LOGGER.info(player.getName() + " imported " + file + ": " + result);
+                return messages.render("transfer-imported", String.valueOf(result.getInserted()), String.valueOf(result.getSkipped()), file.getName());
+            } catch (SQLException | IOException e) {
+                LOGGER.log(Level.WARNING, "Could not import tickets from " + file, e);
+                return messages.render("transfer-failed", e.getMessage());
+            } finally {
+                // Rows were written behind the cache and the indexes, even if only some batches made it
+                databaseManager.getTicketCache().invalidateAll();
+                reloadIndexes();
+                try {
+                    databaseManager.publishEvent(TicketEvent.Type.RELOAD, 0); // The other servers have to reload as well
+                } catch (SQLException e) {
+                    LOGGER.log(Level.WARNING, "Could not tell the other servers about the import", e);
+                }
+            }
+        }));
+    }
+
+    private TicketTransfer newTransfer() {
+        return new TicketTransfer(databaseManager.getDialect(), config.getInt("transfer-fetch-size", 1000), config.getInt("transfer-batch-size", 1000));
+    }
+
+    /**
+     * Method to resolve a file name typed in a command inside the transfers folder
+     * @param name File name, may include sub folders
+     * @return The file, or null if the name points outside the transfers folder
+     */
+    private File transferFile(String name) {
+        File directory = new File(plugin.getDataFolder(), "transfers");
+        File file = new File(directory, name);
+        try {
+            // Commands must not read or overwrite anything else on the server, e.g. through '../'
+            return file.getCanonicalPath().startsWith(directory.getCanonicalPath() + File.separator) ? file : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method to get the last known name of a player
+     * @param playerUUID UUID of the player, may be null
+     * @return Name of the player, the UUID if they never joined, or '-' for null
+     */
+    private static String playerName(UUID playerUUID) {
+        if (playerUUID == null) {
+            return "-";
+        }
+        String name = Bukkit.getOfflinePlayer(playerUUID).getName();
+        return name != null ? name : playerUUID.toString();
     }
 
 
@@ -285,35 +782,7 @@ public class TicketManager implements CommandExecutor, TabCompleter, Listener {
      * @param player Player who issued the command
      */
     private void sendHelpMessage(Player player) {
-        player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("helpMessage"))));
-        player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("commandListMessage"))));
-        player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("helpMenuMessage"))));
-        if (permissonsManager.checkPermission(player, "ticket.create")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("createTicketMessage"))));
-        }
-        if (permissonsManager.checkPermission(player, "ticket.update")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("updateTicketMessage"))));
-        }
-        if (permissonsManager.checkPermission(player, "ticket.close")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("closeTicketMessage"))));
-        }
-        if (permissonsManager.checkPermission(player, "ticket.reopen")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("reopenTicketMessage"))));
-        }
-        if (permissonsManager.checkPermission(player, "ticket.list.admin")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("listAllTicketsMessage"))));
-        } else if (permissonsManager.checkPermission(player, "ticket.list.default")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("listOwnedTicketsMessage"))));
-        }
-        if (permissonsManager.checkPermission(player, "ticket.teleport")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("teleportTicketMessage"))));
-        }
-        if (permissonsManager.checkPermission(player, "ticket.claim")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("claimTicketMessage"))));
-        }
-        if (permissonsManager.checkPermission(player, "ticket.group")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("assignGroupMessage"))));
-        }
+        player.sendMessage(getMenu(player, helpMenus, this::buildHelpMenu));
     }
 
 
@@ -322,33 +791,77 @@ public class TicketManager implements CommandExecutor, TabCompleter, Listener {
      * @param player Player who issued the command
      */
     private void handleTicketChatUI(Player player) {
-        player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("header-ui"))));
-        player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("help-ui"))));
-        if (permissonsManager.checkPermission(player, "ticket.create")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("create-ui"))));
-        }
-        if (permissonsManager.checkPermission(player, "ticket.update")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("update-ui"))));
-        }
-        if (permissonsManager.checkPermission(player, "ticket.close")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("close-ui"))));
-        }
-        if (permissonsManager.checkPermission(player, "ticket.reopen")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("reopen-ui"))));
-        }
-        if (permissonsManager.checkPermission(player, "ticket.list.admin")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("list-ui"))));
-        } else if (permissonsManager.checkPermission(player, "ticket.list.default")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("list-admin-ui"))));
-        }
-        if (permissonsManager.checkPermission(player, "ticket.teleport")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("teleport-ui"))));
+        player.sendMessage(getMenu(player, chatMenus, this::buildChatMenu));
+    }
+
+
+    /**
+     * Method to get a menu for the permissions of a player, building it on the first request for that set of permissions
+     * @param player Player the menu is for
+     * @param cache Cache of built menus by permission set
+     * @param builder Builds the menu for a permission set
+     * @return The whole menu as one component
+     */
+    private Component getMenu(Player player, Map<Object, Component> cache, Function<BitSet, Component> builder) {
+        BitSet permissions = permissonsManager.getPermissionSet(player);
+        // Ops get their own entry, their set also covers permissions that no group grants
+        return cache.computeIfAbsent(player.isOp() ? OP_MENU_KEY : permissions, key -> builder.apply(permissions));
+    }
+
+    private void invalidateMenus() {
+        helpMenus.clear();
+        chatMenus.clear();
+    }
+
+    private Component buildHelpMenu(BitSet permissions) {
+        List<Component> lines = new ArrayList<>();
+        lines.add(messages.get("helpMessage"));
+        lines.add(messages.get("commandListMessage"));
+        lines.add(messages.get("helpMenuMessage"));
+        addMenuLine(lines, permissions, "ticket.create", "createTicketMessage");
+        addMenuLine(lines, permissions, "ticket.update", "updateTicketMessage");
+        addMenuLine(lines, permissions, "ticket.close", "closeTicketMessage");
+        addMenuLine(lines, permissions, "ticket.reopen", "reopenTicketMessage");
+        if (permissonsManager.hasPermission(permissions, "ticket.list.admin")) {
+            lines.add(messages.get("listAllTicketsMessage"));
+        } else {
+            addMenuLine(lines, permissions, "ticket.list.default", "listOwnedTicketsMessage");
         }
-        if (permissonsManager.checkPermission(player, "ticket.claim")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("group-ui"))));
+        addMenuLine(lines, permissions, "ticket.teleport", "teleportTicketMessage");
+        addMenuLine(lines, permissions, "ticket.near", "nearTicketMessage");
+        addMenuLine(lines, permissions, "ticket.search", "searchTicketMessage");
+        addMenuLine(lines, permissions, "ticket.history", "historyTicketMessage");
+        addMenuLine(lines, permissions, "ticket.claim", "claimTicketMessage");
+        addMenuLine(lines, permissions, "ticket.group", "assignGroupMessage");
+        addMenuLine(lines, permissions, "ticket.export", "exportMessage");
+        addMenuLine(lines, permissions, "ticket.import", "importMessage");
+        addMenuLine(lines, permissions, "ticket.reload", "reloadMessage");
+        addMenuLine(lines, permissions, "ticket.stats", "statsMessage");
+        return Component.join(JoinConfiguration.newlines(), lines);
+    }
+
+    private Component buildChatMenu(BitSet permissions) {
+        List<Component> lines = new ArrayList<>();
+        lines.add(messages.get("header-ui"));
+        lines.add(messages.get("help-ui"));
+        addMenuLine(lines, permissions, "ticket.create", "create-ui");
+        addMenuLine(lines, permissions, "ticket.update", "update-ui");
+        addMenuLine(lines, permissions, "ticket.close", "close-ui");
+        addMenuLine(lines, permissions, "ticket.reopen", "reopen-ui");
+        if (permissonsManager.hasPermission(permissions, "ticket.list.admin")) {
+            lines.add(messages.get("list-admin-ui"));
+        } else {
+            addMenuLine(lines, permissions, "ticket.list.default", "list-ui");
         }
-        if (permissonsManager.checkPermission(player, "ticket.group")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("claim-ui"))));
+        addMenuLine(lines, permissions, "ticket.teleport", "teleport-ui");
+        addMenuLine(lines, permissions, "ticket.claim", "claim-ui");
+        addMenuLine(lines, permissions, "ticket.group", "group-ui");
+        return Component.join(JoinConfiguration.newlines(), lines);
+    }
+
+    private void addMenuLine(List<Component> lines, BitSet permissions, String permission, String messageKey) {
+        if (permissonsManager.hasPermission(permissions, permission)) {
+            lines.add(messages.get(messageKey));
         }
     }
 
@@ -358,60 +871,117 @@ public class TicketManager implements CommandExecutor, TabCompleter, Listener {
      * @param player Player who issued the command
      * @param args Arguments provided with the command
      */
-    private void handleTicketCreation(Player player, String[] args) {
+    private CompletableFuture<Void> handleTicketCreation(Player player, String[] args) {
         if (!permissonsManager.checkPermission(player, "ticket.create")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("command-no-permission"))));
-            return;
+            player.sendMessage(messages.get("command-no-permission"));
+            return CompletableFuture.completedFuture(null);
         }
         if (args.length < 2) { // If insufficient arguments provided
-            player.sendMessage(miniMessage.deserialize("<red>Usage: /ticket create <newDescription></red>")); // Provide usage instructions
-            return;
+            player.sendMessage(messages.literal("<red>Usage: /ticket create <newDescription></red>")); // Provide usage instructions
+            return CompletableFuture.completedFuture(null);
         }
         String description = String.join(" ", Arrays.copyOfRange(args, 1, args.length)); // Extract ticket description from arguments
-        double x = player.getLocation().getX(); // Get player's X coordinate
-        double y = player.getLocation().getY(); // Get player's Y coordinate
-        double z = player.getLocation().getZ(); // Get player's Z coordinate
-        double pitch = player.getLocation().getPitch();
-        double yaw = player.getLocation().getYaw();
+        Location playerLocation = player.getLocation(); // Capture the location on the main thread before going async
+        double x = playerLocation.getX(); // Get player's X coordinate
+        double y = playerLocation.getY(); // Get player's Y coordinate
+        double z = playerLocation.getZ(); // Get player's Z coordinate
+        double pitch = playerLocation.getPitch();
+        double yaw = playerLocation.getYaw();
+        UUID playerUUID = player.getUniqueId();
+        String playerName = player.getName();
+        String worldName = player.getWorld().getName();
         long creationTime = System.currentTimeMillis(); // Get current system time
-        int newTicketNum = databaseManager.insertTicket(player.getUniqueId(), player.getName(), description, "open", player.getWorld().getName(), x, y, z, pitch, yaw, creationTime); // Insert ticket into the database
-        player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("ticket-created")))); // Notify player that ticket has been submitted
-        discordManager.PostTicketToDiscord("Create", String.valueOf(newTicketNum), player.getUniqueId().toString(), description, config.getString("discord-id"));
+        Ticket ticket = new Ticket(0, playerUUID, playerName, description, TicketStatus.OPEN, worldName, x, y, z, (float) pitch, (float) yaw, creationTime, null, null, 0L);
+        return reply(player, writeQueue.insertTicket(ticket).thenApply(newTicketNum -> { // Insert ticket into the database
+            spatialIndex.add(newTicketNum, worldName, x, y, z);
+            notifyStaff(ticket.withId(newTicketNum));
+            postToDiscord("Create", String.valueOf(newTicketNum), playerUUID.toString(), description);
+            return messages.get("ticket-created"); // Notify player that ticket has been submitted
+        }));
     }
 
     /**
      * Method to handle ticket list
      * @param player Player who issued the command
+     * @param args Arguments provided with the command, optionally a page number and the page cursor used by the navigation links
      */
-    private void handleTicketList(Player player) {
+    private CompletableFuture<Void> handleTicketList(Player player, String[] args) {
         if (!permissonsManager.checkPermission(player, "ticket.list.admin") && !permissonsManager.checkPermission(player, "ticket.list.default")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("command-no-permission"))));
-            return;
+            player.sendMessage(messages.get("command-no-permission"));
+            return CompletableFuture.completedFuture(null);
         }
         // Check if player has permission to view all tickets
-        List<HashMap<String, String>> tickets = new ArrayList<>();
-        String headMessage = config.getString("ticket-list-admin-head");
-        String noTicketsMessage = config.getString("ticket-list-admin-no-tickets");;
-        if (permissonsManager.checkPermission(player, "ticket.list.admin")) {
-            tickets = databaseManager.getAllTickets(); // Retrieve all tickets from the database
-        } else if (permissonsManager.checkPermission(player, "ticket.list.default")){
-            UUID playerUUID = player.getUniqueId();
-            tickets = databaseManager.getPlayerTickets(playerUUID); // Retrieve player's tickets from the database
-            headMessage = config.getString("ticket-list-default-head");;
-            noTicketsMessage = config.getString("ticket-list-default-no-tickets");;
-        }
-        if (tickets.isEmpty()) { // If there are no tickets
-            assert noTicketsMessage != null;
-            player.sendMessage(miniMessage.deserialize(noTicketsMessage)); // Notify player that there are no tickets
-        } else {
-            assert headMessage != null;
-            player.sendMessage(miniMessage.deserialize(headMessage)); // Notify player that a list of tickets will be displayed
-            for (HashMap<String, String> ticket : tickets) { // Iterate through each ticket
-                if (!ticket.get("Status").contains("closed")) {
-                    player.sendMessage(createTicketMessage(ticket)); // Send ticket information to player
+        boolean listAll = permissonsManager.checkPermission(player, "ticket.list.admin");
+        UUID ownerUUID = listAll ? null : player.getUniqueId();
+        int requestedPage = args.length >= 2 ? Math.max(1, Integer.parseInt(args[1])) : 1;
+        // The navigation links carry the first or last ID of the page they came from, e.g. '>57' for the page after ticket 57
+        String cursor = args.length >= 3 ? args[2] : "";
+        int cursorId = cursor.startsWith("<") || cursor.startsWith(">") ? Integer.parseInt(cursor.substring(1)) : 0;
+        int pageSize = Math.max(1, config.getInt("ticket-list-page-size", 10));
+        return reply(player, asyncManager.supplyAsync(() -> {
+            // Fetch one extra row to find out whether there is another page in the direction we are paging
+            List<Ticket> tickets;
+            boolean hasPrevious;
+            boolean hasNext;
+            int page = requestedPage;
+            if (cursor.startsWith("<")) {
+                tickets = databaseManager.getOpenTickets(ownerUUID, 0, cursorId, pageSize + 1);
+                hasPrevious = tickets.size() > pageSize;
+                if (hasPrevious) {
+                    tickets.remove(0);
+                } else {
+                    page = 1;
+                }
+                hasNext = true;
+            } else {
+                if (cursor.startsWith(">")) {
+                    tickets = databaseManager.getOpenTickets(ownerUUID, cursorId, 0, pageSize + 1);
+                } else {
+                    tickets = databaseManager.getOpenTicketsAt(ownerUUID, (page - 1) * pageSize, pageSize + 1);
                 }
+                hasPrevious = page > 1;
+                hasNext = tickets.size() > pageSize;
+                if (hasNext) {
+                    tickets.remove(pageSize);
+                }
+            }
+            if (tickets.isEmpty()) { // If there are no tickets
+                return messages.get(listAll ? "ticket-list-admin-no-tickets" : "ticket-list-default-no-tickets");
+            }
+            // Join the whole page into one component so it goes out as a single chat message
+            List<Component> lines = new ArrayList<>(tickets.size() + 2);
+            lines.add(messages.get(listAll ? "ticket-list-admin-head" : "ticket-list-default-head"));
+            for (Ticket ticket : tickets) { // Iterate through each ticket
+                lines.add(createTicketMessage(ticket));
             }
+            if (hasPrevious || hasNext) {
+                lines.add(createPageNavigation(page, tickets.get(0).getId(), tickets.get(tickets.size() - 1).getId(), hasPrevious, hasNext));
+            }
+            return Component.join(JoinConfiguration.newlines(), lines);
+        }));
+    }
+
+
+    /**
+     * Method to create the clickable previous/next line under a ticket list page
+     * @param page Number of the page being shown
+     * @param firstId ID of the first ticket on the page
+     * @param lastId ID of the last ticket on the page
+     * @param hasPrevious Whether there is a page before this one
+     * @param hasNext Whether there is a page after this one
+     */
+    private Component createPageNavigation(int page, int firstId, int lastId, boolean hasPrevious, boolean hasNext) {
+        List<Component> parts = new ArrayList<>(3);
+        if (hasPrevious) {
+            parts.add(messages.get("ticket-list-previous")
+                    .clickEvent(ClickEvent.runCommand("/ticket list " + (page - 1) + " <" + firstId)));
         }
+        parts.add(messages.render("ticket-list-page", String.valueOf(page)));
+        if (hasNext) {
+            parts.add(messages.get("ticket-list-next")
+                    .clickEvent(ClickEvent.runCommand("/ticket list " + (page + 1) + " >" + lastId)));
+        }
+        return Component.join(JoinConfiguration.separator(Component.space()), parts);
     }
 
 
@@ -420,130 +990,87 @@ public class TicketManager implements CommandExecutor, TabCompleter, Listener {
      * @param player Player who issued the command
      * @param args Arguments provided with the command
      */
-    private void handleTicketUpdate(Player player, String[] args) {
+    private CompletableFuture<Void> handleTicketUpdate(Player player, String[] args) {
         if (!permissonsManager.checkPermission(player, "ticket.update")) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("command-no-permission"))));
-            return;
+            player.sendMessage(messages.get("command-no-permission"));
+            return CompletableFuture.completedFuture(null);
         }
         if (args.length < 3) {
-            player.sendMessage(miniMessage.deserialize("<red>Usage: /ticket update <id> <newDescription></red>"));
-            return;
+            player.sendMessage(messages.literal("<red>Usage: /ticket update <id> <newDescription></red>"));
+            return CompletableFuture.completedFuture(null);
         }
-        String id = args[1]; // Extract ticket ID from arguments
+        int id = Integer.parseInt(args[1]); // Extract ticket ID from arguments
         String attribute = "description"; // Extract attribute to edit from arguments
-        if (!databaseManager.ticketExists(Integer.parseInt(id))) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("invalid-ticket-id")))); // Notify player of invalid ticket ID
-            return;
-        }
-        HashMap<String, String> ticketInfo = databaseManager.getTicketInfo(Integer.parseInt(id));;
-        if (!checkPlayerOwnsTicket(player, ticketInfo) && !permissonsManager.checkPermission(player, "ticket.update.others")) {
-            return;
-        }
-        if (attribute.equalsIgnoreCase("description")) { // If player wants to edit ticket description
-            String newDescription = String.join(" ", Arrays.copyOfRange(args, 2, args.length)); // Extract new ticket description from arguments
-            databaseManager.updateTicket(Integer.parseInt(id), newDescription, ticketInfo.get("Status")); // Update ticket description in the database
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("ticket-updated")))); // Notify player of successful update
-        } else {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("ticket-update-failed")))); // Notify player of invalid attribute
-        }
+        String newDescription = String.join(" ", Arrays.copyOfRange(args, 2, args.length)); // Extract new ticket description from arguments
+        boolean canUpdateOthers = permissonsManager.checkPermission(player, "ticket.update.others");
+        UUID playerUUID = player.getUniqueId();
+        return replyAfterWrite(player, asyncManager.supplyAsync(() -> {
+            Ticket ticket = databaseManager.getTicket(id);
+            if (ticket == null) {
+                return CompletableFuture.completedFuture(messages.get("invalid-ticket-id")); // Notify player of invalid ticket ID
+            }
+            if (!ticket.isOwnedBy(playerUUID) && !canUpdateOthers) {
+                return CompletableFuture.completedFuture(messages.get("ticket-not-owned-by-you"));
+            }
+            if (attribute.equalsIgnoreCase("description")) { // If player wants to edit ticket description
+                return writeQueue.updateTicket(id, newDescription) // Update ticket description in the database
+                        .thenApply(written -> messages.get("ticket-updated")); // Notify player of successful update
+            }
+            return CompletableFuture.completedFuture(messages.get("ticket-update-failed")); // Notify player of invalid attribute
+        }));
     }
 
 
     /**
      * Method to create a ticket message
-     * @param ticketInfo Ticket information
+     * @param ticket Ticket to render
      */
-    private Component createTicketMessage(HashMap<String, String> ticketInfo) {
-        return miniMessage.deserialize(Objects.requireNonNull(config.getString("listed-ticked")),
-                Placeholder.parsed("description", ticketInfo.get("Description")),
-                Placeholder.parsed("id", ticketInfo.get("ID")),
-                Placeholder.parsed("username", ticketInfo.get("username")),
-                Placeholder.parsed("formatteddate", ticketInfo.get("formattedDate")),
-                Placeholder.parsed("status", ticketInfo.get("Status")));
+    private Component createTicketMessage(Ticket ticket) {
+        return messages.render("listed-ticked", ticket.getDescription(), String.valueOf(ticket.getId()), ticket.getUsername(), ticket.getFormattedDate(), describeStatus(ticket));
     }
 
 
     /**
-     * Method to check if a player owns a ticket
-     * @param player Player to check
-     * @param ticketInfo Ticket information to check
-     * @return True if player owns ticket, false otherwise
+     * Method to describe the status of a ticket the way it was shown before statuses had their own columns
+     * @param ticket Ticket to describe
+     * @return e.g. 'open', 'claimed by Steve' or 'closed by creator'
      */
-    public boolean checkPlayerOwnsTicket(Player player, HashMap<String, String> ticketInfo) {
-        if (!ticketInfo.get("player_uuid").equalsIgnoreCase(player.getUniqueId().toString())) {
-            player.sendMessage(miniMessage.deserialize(Objects.requireNonNull(config.getString("ticket-not-owned-by-you"))));
-            return false;
+    private String describeStatus(Ticket ticket) {
+        switch (ticket.getStatus()) {
+            case CLAIMED:
+                String claimer = ticket.getClaimedBy() == null ? null : Bukkit.getOfflinePlayer(ticket.getClaimedBy()).getName();
+                return claimer == null ? "claimed" : "claimed by " + claimer;
+            case CLOSED:
+                return ticket.getPlayerUUID().equals(ticket.getClosedBy()) ? "closed by creator" : "closed by admin";
+            default:
+                return "open";
         }
-        return true;
     }
 
 
     /**
-     * Method to add a completion to the tab completion list
-     * @param player Player who issued the command
-     * @param completions List of completions
-     * @param command Command to add
+     * Method to run a status transition on the I/O thread, rethrowing database errors so the command reports them
+     * @param transition Conditional update to run
+     * @return True if the transition applied
      */
-    public void addCompletion(Player player, List<String> completions, String command) {
-        if (permissonsManager.checkPermission(player, "ticket." + command)) {
-            completions.add(command);
+    private static boolean transition(Transition transition) {
+        try {
+            return transition.apply();
+        } catch (SQLException e) {
+            throw new CompletionException(e);
         }
     }
 
+    private interface Transition {
+        boolean apply() throws SQLException;
+    }
+
 
     @Override
     public @Nullable List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String s, @NotNull String[] args) {
-        if (!(sender instanceof Player)) {
+        if (!(sender instanceof Player) || !command.getName().equalsIgnoreCase("ticket")) {
             return null;
         }
-        Player player = (Player) sender;
-        if (command.getName().equalsIgnoreCase("ticket")) {
-            if (args.length == 1) {
-                List<String> completions = new ArrayList<>();
-                addCompletion(player, completions, "create");
-                addCompletion(player, completions, "update");
-                addCompletion(player, completions, "close");
-                addCompletion(player, completions, "reopen");
-                addCompletion(player, completions, "teleport");
-                addCompletion(player, completions, "claim");
-                addCompletion(player, completions, "group");
-                if (permissonsManager.checkPermission(player, "ticket.list.admin") || permissonsManager.checkPermission(player, "ticket.list.default")) {
-                    completions.add("list");
-                }
-                completions.add("help");
-                return completions;
-            } else if (args.length == 2) {
-                String subcommand = args[0];
-                subcommand = subcommand.toLowerCase();
-                List<String> completions = new ArrayList<>();
-                if (permissonsManager.checkPermission(player, "ticket." + subcommand)) {
-                    List<String> justIDCommands = new ArrayList<>(Arrays.asList("update", "close", "reopen", "teleport", "tp", "claim"));
-                    if (subcommand.equalsIgnoreCase("create")) {
-                        completions.add("description");
-                    } else if (justIDCommands.contains(subcommand)) {
-                        completions.add("<id>");
-                    } else if (subcommand.equalsIgnoreCase("group")) {
-                        completions.addAll(permissonsManager.getRoleNames());
-                    }
-                }
-                return completions;
-            } else if (args.length == 3) {
-                String subcommand = args[0];
-                subcommand = subcommand.toLowerCase();
-                List<String> completions = new ArrayList<>();
-                if (permissonsManager.checkPermission(player, "ticket." + subcommand)) {
-                    if (subcommand.equalsIgnoreCase("update")) {
-                        completions.add("<description>");
-                    } else if (subcommand.equalsIgnoreCase("group")) {
-                        List<Player> players = (List<Player>) Bukkit.getOnlinePlayers();
-                        for (Player p : players) {
-                            completions.add(p.getName());
-                        }
-                    }
-                    return completions;
-                }
-            }
-        }
-        return null;
+        return tabCompleter.complete((Player) sender, args);
     }
 }
@@ -0,0 +1,32 @@
+package org.incendo.cloudpaper;
+
+/**
+ * Values of the Status column. Who claimed or closed a ticket is kept in the claimed_by and closed_by columns.
+ */
+public enum TicketStatus {
+
+    OPEN,
+    CLAIMED,
+    CLOSED;
+
+    /**
+     * Method to read a Status value, also accepting the free text statuses written before migration 4
+     * @param value Value of the Status column
+     * @return Matching status, OPEN if the value is not recognised
+     */
+    public static TicketStatus fromColumn(String value) {
+        if (value == null) {
+            return OPEN;
+        }
+        switch (value) {
+            case "OPEN": return OPEN;
+            case "CLAIMED": return CLAIMED;
+            case "CLOSED": return CLOSED;
+            default:
+                if (value.startsWith("closed")) {
+                    return CLOSED;
+                }
+                return value.startsWith("claimed") ? CLAIMED : OPEN;
+        }
+    }
+}
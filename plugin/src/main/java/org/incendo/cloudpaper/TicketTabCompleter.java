@@ -0,0 +1,101 @@
+package org.incendo.cloudpaper;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tab completion for /ticket, kept apart from TicketManager so it can run without a server
+ */
+public class TicketTabCompleter {
+
+    private static final Set<String> ID_COMMANDS = new HashSet<>(Arrays.asList("update", "close", "reopen", "teleport", "tp", "claim", "history"));
+
+    private final PermissonsManager permissonsManager;
+
+    public TicketTabCompleter(PermissonsManager permissonsManager) {
+        this.permissonsManager = permissonsManager;
+    }
+
+
+    /**
+     * Method to get the completions for the arguments typed so far
+     * @param player Player typing the command
+     * @param args Arguments typed so far, the last one is the one being completed
+     * @return Completions, or null to let the server suggest player names
+     */
+    public List<String> complete(Player player, String[] args) {
+        if (args.length == 1) {
+            List<String> completions = new ArrayList<>();
+            addCompletion(player, completions, "create");
+            addCompletion(player, completions, "update");
+            addCompletion(player, completions, "close");
+            addCompletion(player, completions, "reopen");
+            addCompletion(player, completions, "teleport");
+            addCompletion(player, completions, "claim");
+            addCompletion(player, completions, "near");
+            addCompletion(player, completions, "search");
+            addCompletion(player, completions, "history");
+            addCompletion(player, completions, "group");
+            addCompletion(player, completions, "export");
+            addCompletion(player, completions, "import");
+            addCompletion(player, completions, "reload");
+            addCompletion(player, completions, "stats");
+            if (permissonsManager.checkPermission(player, "ticket.list.admin") || permissonsManager.checkPermission(player, "ticket.list.default")) {
+                completions.add("list");
+            }
+            completions.add("help");
+            return completions;
+        } else if (args.length == 2) {
+            String subcommand = args[0].toLowerCase();
+            List<String> completions = new ArrayList<>();
+            if (permissonsManager.checkPermission(player, "ticket." + subcommand)) {
+                if (subcommand.equals("create")) {
+                    completions.add("description");
+                } else if (ID_COMMANDS.contains(subcommand)) {
+                    completions.add("<id>");
+                } else if (subcommand.equals("group")) {
+                    completions.addAll(permissonsManager.getRoleNames());
+                } else if (subcommand.equals("near")) {
+                    completions.add("[radius]");
+                } else if (subcommand.equals("search")) {
+                    completions.add("<words>");
+                } else if (subcommand.equals("export") || subcommand.equals("import")) {
+                    completions.add("<file.csv|file.ndjson>[.gz]");
+                }
+            }
+            return completions;
+        } else if (args.length == 3) {
+            String subcommand = args[0].toLowerCase();
+            List<String> completions = new ArrayList<>();
+            if (permissonsManager.checkPermission(player, "ticket." + subcommand)) {
+                if (subcommand.equals("update")) {
+                    completions.add("<description>");
+                } else if (subcommand.equals("group")) {
+                    for (Player online : Bukkit.getOnlinePlayers()) {
+                        completions.add(online.getName());
+                    }
+                }
+                return completions;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method to add a completion to the tab completion list
+     * @param player Player who issued the command
+     * @param completions List of completions
+     * @param command Command to add
+     */
+    private void addCompletion(Player player, List<String> completions, String command) {
+        if (permissonsManager.checkPermission(player, "ticket." + command)) {
+            completions.add(command);
+        }
+    }
+}
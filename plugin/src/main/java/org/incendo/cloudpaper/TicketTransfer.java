@@ -0,0 +1,509 @@
+package org.incendo.cloudpaper;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams tickets between the database and CSV or NDJSON files, optionally gzip compressed.
+ * Rows are written as they are read and inserted in batches as they are parsed, so memory use does not grow with the table.
+ * Only uses plain JDBC, so it also runs outside the server through {@link #main(String[])}.
+ */
+public class TicketTransfer {
+
+    // Column names in export files, in the order of Ticket.COLUMNS followed by archived_at
+    private static final String[] FIELDS = {"id", "player_uuid", "username", "description", "status", "world", "x", "y", "z",
+            "pitch", "yaw", "creation_time", "claimed_by", "closed_by", "closed_at", "archived_at"};
+    private static final int ARCHIVED_AT = 15;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SqlDialect dialect;
+    private final int fetchSize;
+    private final int batchSize;
+
+    public TicketTransfer(SqlDialect dialect, int fetchSize, int batchSize) {
+        this.dialect = dialect;
+        this.fetchSize = fetchSize;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+
+    /**
+     * Method to export every ticket, live and archived, to a file
+     * @param connection Connection to read with, it is only used for this export
+     * @param file File to write, .csv or .ndjson, with .gz appended to compress it
+     * @return Number of tickets written
+     * @throws SQLException If the tickets could not be read
+     * @throws IOException If the file could not be written
+     */
+    public long exportTo(Connection connection, File file) throws SQLException, IOException {
+        Format format = Format.fromFileName(file.getName());
+        long rows = 0;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(openOutput(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            if (format == Format.CSV) {
+                writeCsv(out, FIELDS);
+            }
+            rows += exportTable(connection, "SELECT " + Ticket.COLUMNS + ", NULL FROM tickets ORDER BY ID", format, out);
+            rows += exportTable(connection, "SELECT " + Ticket.ARCHIVE_COLUMNS + ", archived_at FROM tickets_archive ORDER BY ID", format, out);
+        }
+        return rows;
+    }
+
+    private long exportTable(Connection connection, String sql, Format format, Writer out) throws SQLException, IOException {
+        long rows = 0;
+        Object[] values = new Object[FIELDS.length];
+        // Forward only and read only, with a fetch size the driver streams the rows instead of buffering the whole result
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            preparedStatement.setFetchSize(dialect.streamingFetchSize(fetchSize));
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    values[0] = resultSet.getInt(1);
+                    values[1] = uuidString(resultSet.getBytes(2));
+                    values[2] = resultSet.getString(3);
+                    values[3] = resultSet.getString(4);
+                    values[4] = TicketStatus.fromColumn(resultSet.getString(5)).name();
+                    values[5] = resultSet.getString(6);
+                    for (int column = 7; column <= 11; column++) {
+                        values[column - 1] = resultSet.getDouble(column);
+                    }
+                    values[11] = resultSet.getLong(12);
+                    values[12] = uuidString(resultSet.getBytes(13));
+                    values[13] = uuidString(resultSet.getBytes(14));
+                    values[14] = nullableLong(resultSet, 15);
+                    values[15] = nullableLong(resultSet, 16);
+                    if (format == Format.CSV) {
+                        String[] fields = new String[values.length];
+                        for (int i = 0; i < values.length; i++) {
+                            fields[i] = values[i] == null ? null : String.valueOf(values[i]);
+                        }
+                        writeCsv(out, fields);
+                    } else {
+                        JSONObject json = new JSONObject();
+                        for (int i = 0; i < values.length; i++) {
+                            json.put(FIELDS[i], values[i] == null ? JSONObject.NULL : values[i]);
+                        }
+                        out.write(json.toString());
+                        out.write('\n');
+                    }
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+
+    /**
+     * Method to import tickets from a file written by exportTo, keeping their IDs. Tickets whose ID already exists, live or archived, are skipped.
+     * @param connections Supplies a connection per batch, each batch is committed in its own transaction and the connection closed again.
+     *                    Other writers only wait for one batch, not for the whole import, which matters with SQLite's single writer.
+     * @param file File to read, the format is taken from its name like for exportTo
+     * @return Number of tickets inserted and skipped
+     * @throws SQLException If a batch could not be written, the batches before it stay imported
+     * @throws IOException If the file could not be read or holds a malformed row
+     */
+    public Result importFrom(ConnectionSource connections, File file) throws SQLException, IOException {
+        Format format = Format.fromFileName(file.getName());
+        Result result = new Result();
+        List<String[]> batch = new ArrayList<>(batchSize);
+        List<Long> lineNumbers = new ArrayList<>(batchSize);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(openInput(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            RowReader reader = format == Format.CSV ? new CsvRowReader(in) : new JsonRowReader(in);
+            String[] row;
+            while ((row = reader.next()) != null) {
+                batch.add(row);
+                lineNumbers.add(reader.getLineNumber());
+                if (batch.size() == batchSize) {
+                    insertBatch(connections, batch, lineNumbers, result);
+                    batch.clear();
+                    lineNumbers.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            insertBatch(connections, batch, lineNumbers, result);
+        }
+        return result;
+    }
+
+    private void insertBatch(ConnectionSource connections, List<String[]> batch, List<Long> lineNumbers, Result result) throws SQLException, IOException {
+        String placeholders = "?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?";
+        // An ID is only inserted if neither table has it, INSERT IGNORE covers the table written to and NOT EXISTS the other one
+        try (Connection connection = connections.getConnection();
+             PreparedStatement live = connection.prepareStatement(
+                     dialect.insertIgnore() + " tickets (" + Ticket.COLUMNS + ") SELECT " + placeholders + dialect.fromNoTable()
+                             + " WHERE NOT EXISTS (SELECT 1 FROM tickets_archive WHERE ID = ?)");
+             PreparedStatement archived = connection.prepareStatement(
+                     dialect.insertIgnore() + " tickets_archive (" + Ticket.ARCHIVE_COLUMNS + ", archived_at) SELECT " + placeholders + ", ?" + dialect.fromNoTable()
+                             + " WHERE NOT EXISTS (SELECT 1 FROM tickets WHERE ID = ?)")) {
+            connection.setAutoCommit(false);
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    String[] row = batch.get(i);
+                    PreparedStatement insert = row[ARCHIVED_AT] != null ? archived : live;
+                    bind(insert, row, lineNumbers.get(i));
+                    insert.addBatch();
+                }
+                count(live.executeBatch(), result);
+                count(archived.executeBatch(), result);
+                connection.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private void bind(PreparedStatement insert, String[] row, long lineNumber) throws SQLException, IOException {
+        try {
+            insert.setInt(1, Integer.parseInt(required(row, 0)));
+            insert.setBytes(2, UUIDConverter.toBytes(UUID.fromString(required(row, 1))));
+            insert.setString(3, required(row, 2));
+            insert.setString(4, required(row, 3));
+            insert.setString(5, TicketStatus.fromColumn(required(row, 4)).name());
+            insert.setString(6, required(row, 5));
+            for (int field = 6; field <= 10; field++) {
+                insert.setDouble(field + 1, Double.parseDouble(required(row, field)));
+            }
+            insert.setLong(12, Long.parseLong(required(row, 11)));
+            insert.setBytes(13, row[12] != null ? UUIDConverter.toBytes(UUID.fromString(row[12])) : null);
+            insert.setBytes(14, row[13] != null ? UUIDConverter.toBytes(UUID.fromString(row[13])) : null);
+            if (row[14] != null) {
+                insert.setLong(15, Long.parseLong(row[14]));
+            } else {
+                insert.setNull(15, Types.BIGINT);
+            }
+            if (row[ARCHIVED_AT] != null) {
+                insert.setLong(16, Long.parseLong(row[ARCHIVED_AT]));
+                insert.setInt(17, Integer.parseInt(row[0])); // ID looked up in tickets
+            } else {
+                insert.setInt(16, Integer.parseInt(row[0])); // ID looked up in tickets_archive
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed ticket on line " + lineNumber + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static String required(String[] row, int field) {
+        if (row[field] == null) {
+            throw new IllegalArgumentException(FIELDS[field] + " is missing");
+        }
+        return row[field];
+    }
+
+    private static void count(int[] updateCounts, Result result) {
+        for (int updateCount : updateCounts) {
+            // Drivers that cannot tell report SUCCESS_NO_INFO, count those as inserted
+            if (updateCount == 0) {
+                result.skipped++;
+            } else {
+                result.inserted++;
+            }
+        }
+    }
+
+
+    private static OutputStream openOutput(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        OutputStream out = new FileOutputStream(file);
+        return file.getName().endsWith(".gz") ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+    }
+
+    private static InputStream openInput(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        return file.getName().endsWith(".gz") ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    private static String uuidString(byte[] bytes) {
+        UUID uuid = UUIDConverter.fromBytes(bytes);
+        return uuid != null ? uuid.toString() : null;
+    }
+
+    private static Long nullableLong(ResultSet resultSet, int column) throws SQLException {
+        long value = resultSet.getLong(column);
+        return resultSet.wasNull() ? null : value;
+    }
+
+    // RFC 4180, a null value is an empty field and an empty string is a quoted empty field
+    private static void writeCsv(Writer out, String[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            String field = fields[i];
+            if (field == null) {
+                continue;
+            }
+            if (field.isEmpty() || field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                out.write('"');
+                out.write(field.replace("\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(field);
+            }
+        }
+        out.write("\r\n");
+    }
+
+
+    /**
+     * Method to run an export or import from the command line, e.g. to move tickets between a MySQL server and a SQLite file.
+     * The target database must already have the plugin's tables, start the plugin against it once to create them.
+     * @param args export|import, database-type, JDBC URL, file, then optionally the username and password
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4 || !(args[0].equals("export") || args[0].equals("import"))) {
+            System.err.println("Usage: java -cp <plugin jar> org.incendo.cloudpaper.TicketTransfer <export|import> <mysql|mariadb|sqlite> <jdbc url> <file.csv|file.ndjson>[.gz] [username] [password]");
+            System.exit(2);
+        }
+        SqlDialect dialect = SqlDialect.fromDatabaseType(args[1]);
+        TicketTransfer transfer = new TicketTransfer(dialect, 1000, 1000);
+        File file = new File(args[3]);
+        String url = args[2];
+        String user = args.length > 4 ? args[4] : null;
+        String password = args.length > 5 ? args[5] : null;
+        if (args[0].equals("export")) {
+            try (Connection connection = DriverManager.getConnection(url, user, password)) {
+                System.out.println("Exported " + transfer.exportTo(connection, file) + " tickets to " + file);
+            }
+        } else {
+            // Nothing else writes to the database here, a fresh connection per batch is cheap next to inserting the batch
+            System.out.println("Imported " + file + ": " + transfer.importFrom(() -> DriverManager.getConnection(url, user, password), file));
+        }
+    }
+
+
+    /**
+     * File formats, picked by the file extension
+     */
+    public enum Format {
+        CSV, NDJSON;
+
+        public static Format fromFileName(String name) throws IOException {
+            String lower = name.toLowerCase();
+            if (lower.endsWith(".gz")) {
+                lower = lower.substring(0, lower.length() - 3);
+            }
+            if (lower.endsWith(".csv")) {
+                return CSV;
+            }
+            if (lower.endsWith(".ndjson") || lower.endsWith(".jsonl")) {
+                return NDJSON;
+            }
+            throw new IOException("Unknown file type '" + name + "', use .csv, .ndjson or .jsonl, optionally followed by .gz");
+        }
+    }
+
+    /**
+     * Counts of an import
+     */
+    public static final class Result {
+
+        private long inserted;
+        private long skipped;
+
+        public long getInserted() {
+            return inserted;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        @Override
+        public String toString() {
+            return inserted + " inserted, " + skipped + " skipped because their ID already exists";
+        }
+    }
+
+
+    public interface ConnectionSource {
+        Connection getConnection() throws SQLException;
+    }
+
+    private interface RowReader {
+
+        /**
+         * @return Fields of the next ticket in FIELDS order with null for missing values, or null at the end of the file
+         */
+        String[] next() throws IOException;
+
+        long getLineNumber();
+    }
+
+    private static final class JsonRowReader implements RowReader {
+
+        private final BufferedReader in;
+        private long lineNumber;
+
+        private JsonRowReader(BufferedReader in) {
+            this.in = in;
+        }
+
+        @Override
+        public String[] next() throws IOException {
+            String line;
+            do {
+                line = in.readLine();
+                lineNumber++;
+                if (line == null) {
+                    return null;
+                }
+            } while (line.trim().isEmpty());
+            try {
+                JSONObject json = new JSONObject(line);
+                String[] row = new String[FIELDS.length];
+                for (int i = 0; i < FIELDS.length; i++) {
+                    row[i] = json.isNull(FIELDS[i]) ? null : String.valueOf(json.get(FIELDS[i]));
+                }
+                return row;
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed JSON on line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public long getLineNumber() {
+            return lineNumber;
+        }
+    }
+
+    /**
+     * Reads RFC 4180 records one character at a time, so quoted fields may span lines. The header row maps columns by name.
+     */
+    private static final class CsvRowReader implements RowReader {
+
+        private final Reader in;
+        private final int[] fieldOfColumn;
+        private long lineNumber = 1;
+        private long recordLine;
+
+        private CsvRowReader(Reader in) throws IOException {
+            this.in = in;
+            List<String> header = readRecord();
+            if (header == null) {
+                throw new IOException("The CSV file is empty, it needs a header row");
+            }
+            Map<String, Integer> fieldIndexes = new HashMap<>();
+            for (int i = 0; i < FIELDS.length; i++) {
+                fieldIndexes.put(FIELDS[i], i);
+            }
+            fieldOfColumn = new int[header.size()];
+            for (int column = 0; column < header.size(); column++) {
+                String name = header.get(column) == null ? "" : header.get(column).trim().toLowerCase();
+                fieldOfColumn[column] = fieldIndexes.getOrDefault(name, -1); // Unknown columns are ignored
+            }
+        }
+
+        @Override
+        public String[] next() throws IOException {
+            List<String> record = readRecord();
+            if (record == null) {
+                return null;
+            }
+            String[] row = new String[FIELDS.length];
+            for (int column = 0; column < record.size() && column < fieldOfColumn.length; column++) {
+                if (fieldOfColumn[column] >= 0) {
+                    row[fieldOfColumn[column]] = record.get(column);
+                }
+            }
+            return row;
+        }
+
+        @Override
+        public long getLineNumber() {
+            return recordLine;
+        }
+
+        // Empty unquoted fields read as null, quoted ones as empty strings
+        private List<String> readRecord() throws IOException {
+            recordLine = lineNumber;
+            List<String> fields = new ArrayList<>(FIELDS.length);
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean wasQuoted = false;
+            int c = in.read();
+            if (c == -1) {
+                return null;
+            }
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Unterminated quoted field starting on line " + recordLine);
+                    }
+                    if (c == '"') {
+                        int next = in.read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            c = next;
+                            continue;
+                        }
+                    } else {
+                        if (c == '\n') {
+                            lineNumber++;
+                        }
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                    wasQuoted = true;
+                } else if (c == ',' || c == '\n' || c == -1) {
+                    fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+                    field.setLength(0);
+                    wasQuoted = false;
+                    if (c != ',') {
+                        if (c == '\n') {
+                            lineNumber++;
+                        }
+                        if (fields.size() == 1 && fields.get(0) == null) {
+                            // Blank line, skip it
+                            fields.clear();
+                            recordLine = lineNumber;
+                            c = in.read();
+                            if (c == -1) {
+                                return null;
+                            }
+                            continue;
+                        }
+                        return fields;
+                    }
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+                c = in.read();
+            }
+        }
+    }
+}
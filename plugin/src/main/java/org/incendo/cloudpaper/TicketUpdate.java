@@ -0,0 +1,24 @@
+package org.incendo.cloudpaper;
+
+/**
+ * New description for one row of the 'tickets' table, written in batches by the WriteBehindQueue.
+ * Status changes do not go through the queue, they are conditional updates in DatabaseManager.
+ */
+public final class TicketUpdate {
+
+    private final int ticketId;
+    private final String description;
+
+    public TicketUpdate(int ticketId, String description) {
+        this.ticketId = ticketId;
+        this.description = description;
+    }
+
+    public int getTicketId() {
+        return ticketId;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
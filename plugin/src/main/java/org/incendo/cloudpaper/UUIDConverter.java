@@ -0,0 +1,40 @@
+package org.incendo.cloudpaper;
+
+import java.util.UUID;
+
+/**
+ * Converts UUIDs to and from the 16 byte form stored in the player_uuid, claimed_by and closed_by columns.
+ * Null stays null, for the columns that are nullable.
+ */
+public final class UUIDConverter {
+
+    private UUIDConverter() {
+    }
+
+    public static byte[] toBytes(UUID uuid) {
+        if (uuid == null) {
+            return null;
+        }
+        byte[] bytes = new byte[16];
+        long most = uuid.getMostSignificantBits();
+        long least = uuid.getLeastSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (most >>> (56 - i * 8));
+            bytes[i + 8] = (byte) (least >>> (56 - i * 8));
+        }
+        return bytes;
+    }
+
+    public static UUID fromBytes(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        long most = 0;
+        long least = 0;
+        for (int i = 0; i < 8; i++) {
+            most = (most << 8) | (bytes[i] & 0xFF);
+            least = (least << 8) | (bytes[i + 8] & 0xFF);
+        }
+        return new UUID(most, least);
+    }
+}
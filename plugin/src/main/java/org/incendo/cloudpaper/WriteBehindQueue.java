@@ -0,0 +1,193 @@
+package org.incendo.cloudpaper;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import static org.incendo.cloudpaper.Plugin.LOGGER;
+
+/**
+ * Buffers ticket inserts and updates and writes them to the database in batches
+ */
+public class WriteBehindQueue {
+
+    private final DatabaseManager databaseManager;
+    private final int batchSize;
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Object lock = new Object();
+    private List<PendingInsert> inserts = new ArrayList<>();
+    private LinkedHashMap<Integer, PendingUpdate> updates = new LinkedHashMap<>();
+    private volatile boolean closed;
+
+    public WriteBehindQueue(DatabaseManager databaseManager, FileConfiguration config) {
+        this.databaseManager = databaseManager;
+        this.batchSize = Math.max(1, config.getInt("write-behind-batch-size", 100));
+        long flushInterval = Math.max(10L, config.getLong("write-behind-flush-interval", 50L));
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Ticket-Write-Behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Every write goes through this one thread, so batches reach the database in the order they were queued
+        this.flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Method to queue a new ticket for insertion
+     * @param ticket Ticket to insert, its ID is ignored
+     * @return Future completed with the generated ticket ID once the batch holding it has been committed
+     */
+    public CompletableFuture<Integer> insertTicket(Ticket ticket) {
+        PendingInsert pending = new PendingInsert(ticket);
+        int queued;
+        synchronized (lock) {
+            if (closed) {
+                throw new RejectedExecutionException("The ticket write queue has been shut down");
+            }
+            inserts.add(pending);
+            queued = inserts.size() + updates.size();
+        }
+        onQueued(queued);
+        return pending.future;
+    }
+
+
+    /**
+     * Method to queue a description update. A newer update to the same ticket replaces one that has not been written yet.
+     * @param ticketId ID of the ticket to update
+     * @param description New description
+     * @return Future completed once the update has been committed
+     */
+    public CompletableFuture<Void> updateTicket(int ticketId, String description) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        int queued;
+        synchronized (lock) {
+            if (closed) {
+                throw new RejectedExecutionException("The ticket write queue has been shut down");
+            }
+            PendingUpdate pending = updates.get(ticketId);
+            if (pending == null) {
+                pending = new PendingUpdate();
+                updates.put(ticketId, pending);
+            }
+            pending.update = new TicketUpdate(ticketId, description);
+            pending.futures.add(future);
+            queued = inserts.size() + updates.size();
+        }
+        onQueued(queued);
+        return future;
+    }
+
+
+    /**
+     * Method to stop accepting writes and flush everything still queued. Blocks until the queue is drained.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            closed = true;
+        }
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.log(Level.WARNING, "Timed out waiting for the ticket write queue to finish its current batch");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush(); // Anything queued after the last scheduled flush is written here, on the disabling thread
+    }
+
+
+    private void onQueued(int queued) {
+        if (queued >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                flushScheduled.set(false); // Shutting down, the final drain will pick it up
+            }
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        List<PendingInsert> insertBatch;
+        LinkedHashMap<Integer, PendingUpdate> updateBatch;
+        synchronized (lock) {
+            if (inserts.isEmpty() && updates.isEmpty()) {
+                return;
+            }
+            insertBatch = inserts;
+            updateBatch = updates;
+            inserts = new ArrayList<>();
+            updates = new LinkedHashMap<>();
+        }
+        // Inserts go first so an update queued for a just-created ticket always finds its row
+        if (!insertBatch.isEmpty()) {
+            List<Ticket> tickets = new ArrayList<>(insertBatch.size());
+            for (PendingInsert pending : insertBatch) {
+                tickets.add(pending.ticket);
+            }
+            try {
+                int[] ticketIds = databaseManager.insertTickets(tickets);
+                for (int i = 0; i < ticketIds.length; i++) {
+                    insertBatch.get(i).future.complete(ticketIds[i]);
+                }
+            } catch (SQLException | RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Failed to insert a batch of " + tickets.size() + " ticket(s)", e);
+                for (PendingInsert pending : insertBatch) {
+                    pending.future.completeExceptionally(e);
+                }
+            }
+        }
+        if (!updateBatch.isEmpty()) {
+            List<TicketUpdate> ticketUpdates = new ArrayList<>(updateBatch.size());
+            for (PendingUpdate pending : updateBatch.values()) {
+                ticketUpdates.add(pending.update);
+            }
+            try {
+                databaseManager.updateTickets(ticketUpdates);
+                for (PendingUpdate pending : updateBatch.values()) {
+                    for (CompletableFuture<Void> future : pending.futures) {
+                        future.complete(null);
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Failed to update a batch of " + ticketUpdates.size() + " ticket(s)", e);
+                for (PendingUpdate pending : updateBatch.values()) {
+                    for (CompletableFuture<Void> future : pending.futures) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            }
+        }
+    }
+
+
+    private static final class PendingInsert {
+
+        private final Ticket ticket;
+        private final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        private PendingInsert(Ticket ticket) {
+            this.ticket = ticket;
+        }
+    }
+
+    private static final class PendingUpdate {
+
+        private TicketUpdate update;
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>(1);
+    }
+}
@@ -0,0 +1,223 @@
+package org.incendo.cloudpaper;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the dispatcher against a local HTTP stub standing in for the Discord webhook
+ */
+class DiscordDispatcherTest {
+
+    @TempDir
+    File dataFolder;
+    private MockWebServer server;
+    private Metrics metrics;
+    private DiscordDispatcher dispatcher;
+
+    @BeforeAll
+    static void setupLogger() {
+        Plugin.LOGGER = Logger.getLogger("DiscordDispatcherTest");
+    }
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        metrics = new Metrics();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+        server.shutdown();
+    }
+
+    @Test
+    void deliversOn2xx() throws InterruptedException {
+        server.enqueue(new MockResponse().setResponseCode(204));
+        dispatcher = start(5);
+
+        assertTrue(dispatcher.dispatch(event("1")));
+
+        RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertEquals("POST", request.getMethod());
+        assertTrue(request.getBody().readUtf8().contains("\"ticket\":\"1\""));
+        await(() -> counter("delivered") == 1);
+        assertFalse(spoolFile().exists());
+    }
+
+    @Test
+    void waitsForRetryAfterOn429() throws InterruptedException {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setResponseCode(204));
+        dispatcher = start(1); // A rate limit must not use up the only attempt
+
+        dispatcher.dispatch(event("1"));
+
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        long limitedAt = System.nanoTime();
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - limitedAt) >= 900L, "retried before Retry-After passed");
+        await(() -> counter("delivered") == 1);
+        assertEquals(1, counter("rate_limited"));
+        assertFalse(spoolFile().exists());
+    }
+
+    @Test
+    void spoolsAfterTooManyRateLimits() throws InterruptedException {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+        dispatcher = start(5, 1);
+
+        dispatcher.dispatch(event("1"));
+
+        await(() -> counter("spooled") == 1);
+        assertEquals(2, server.getRequestCount());
+        assertEquals(2, counter("rate_limited"));
+        assertEquals(1, spoolLines().size());
+    }
+
+    @Test
+    void retries5xxWithBackoff() throws InterruptedException {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(502));
+        server.enqueue(new MockResponse().setResponseCode(204));
+        dispatcher = start(5);
+
+        dispatcher.dispatch(event("1"));
+
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        }
+        await(() -> counter("delivered") == 1);
+        assertEquals(3, server.getRequestCount());
+        assertFalse(spoolFile().exists());
+    }
+
+    @Test
+    void spoolsAfterLastAttempt() throws InterruptedException {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        dispatcher = start(2);
+
+        dispatcher.dispatch(event("1"));
+
+        await(() -> counter("spooled") == 1);
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, spoolLines().size());
+    }
+
+    @Test
+    void dropsOn4xx() throws InterruptedException {
+        server.enqueue(new MockResponse().setResponseCode(400));
+        dispatcher = start(5);
+
+        dispatcher.dispatch(event("1"));
+
+        await(() -> counter("rejected") == 1);
+        assertEquals(1, server.getRequestCount());
+        assertFalse(spoolFile().exists());
+    }
+
+    @Test
+    void spoolsOnShutdownAndReplaysOnStart() throws InterruptedException {
+        // The first event is held back by a long Retry-After, so the next two are still queued at shutdown
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "30"));
+        dispatcher = start(5);
+        dispatcher.dispatch(event("1"));
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(event("2"));
+        dispatcher.dispatch(event("3"));
+
+        dispatcher.shutdown();
+        dispatcher = null;
+
+        assertEquals(3, spoolLines().size());
+
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(204));
+        }
+        dispatcher = start(5);
+        List<String> bodies = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+            assertNotNull(request);
+            bodies.add(request.getBody().readUtf8());
+        }
+        assertNull(server.takeRequest(200, TimeUnit.MILLISECONDS));
+        for (String id : new String[]{"1", "2", "3"}) {
+            assertTrue(bodies.stream().anyMatch(body -> body.contains("\"ticket\":\"" + id + "\"")), "ticket " + id + " was not replayed");
+        }
+        assertFalse(spoolFile().exists());
+    }
+
+
+    private DiscordDispatcher start(int maxAttempts) {
+        return start(maxAttempts, 5);
+    }
+
+    private DiscordDispatcher start(int maxAttempts, int maxRateLimits) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("discord-max-attempts", maxAttempts);
+        config.set("discord-max-rate-limits", maxRateLimits);
+        config.set("discord-retry-delay", 10L);
+        DiscordDispatcher started = new DiscordDispatcher(server.url("/webhook").toString(), spoolFile(), config, metrics,
+                (event, json) -> json.beginObject().name("ticket").value(event.getId()).name("content").value(event.getMessage()).endObject());
+        started.start();
+        return started;
+    }
+
+    private static DiscordEvent event(String id) {
+        return new DiscordEvent("Create", id, "player", "Ticket " + id, "0", System.currentTimeMillis());
+    }
+
+    private File spoolFile() {
+        return new File(dataFolder, "discord-spool.jsonl");
+    }
+
+    private List<String> spoolLines() {
+        try {
+            return Files.readAllLines(spoolFile().toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new AssertionError("Could not read the spool file", e);
+        }
+    }
+
+    private long counter(String result) {
+        return metrics.counter("ticket_discord_events_total", "result", result).get();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(10L);
+        }
+    }
+}
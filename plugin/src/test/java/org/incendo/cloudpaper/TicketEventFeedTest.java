@@ -0,0 +1,187 @@
+package org.incendo.cloudpaper;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two servers, each with its own DatabaseManager and feed, sharing one SQLite database file
+ */
+class TicketEventFeedTest {
+
+    private static final long GAP_TIMEOUT = 10_000L;
+
+    @TempDir
+    File dataFolder;
+    private DatabaseManager serverA;
+    private DatabaseManager serverB;
+    private final List<TicketEvent> receivedByA = new ArrayList<>();
+    private final List<TicketEvent> receivedByB = new ArrayList<>();
+    private TicketEventFeed feedA;
+    private TicketEventFeed feedB;
+
+    @BeforeAll
+    static void setupLogger() {
+        Plugin.LOGGER = Logger.getLogger("TicketEventFeedTest");
+    }
+
+    @BeforeEach
+    void startServers() {
+        serverA = connect("a");
+        assertTrue(serverA.migrateSchema());
+        serverB = connect("b");
+        // Like TicketManager.applyEvent, the next read of the ticket goes to the database
+        feedA = new TicketEventFeed(serverA, "a", event -> {
+            receivedByA.add(event);
+            serverA.getTicketCache().invalidate(event.getTicketId());
+        }, 2, GAP_TIMEOUT);
+        feedB = new TicketEventFeed(serverB, "b", event -> {
+            receivedByB.add(event);
+            serverB.getTicketCache().invalidate(event.getTicketId());
+        }, 2, GAP_TIMEOUT);
+        // The first poll only finds where the log ends
+        feedA.poll(0L);
+        feedB.poll(0L);
+    }
+
+    @AfterEach
+    void stopServers() {
+        serverA.disconnectFromDatabase();
+        serverB.disconnectFromDatabase();
+    }
+
+    @Test
+    void convergesAcrossServers() throws SQLException {
+        int ticketId = serverA.insertTicket(UUID.randomUUID(), "Alex", "Stuck in a wall", TicketStatus.OPEN, "world", 1, 64, 1, 0, 0, System.currentTimeMillis());
+        assertTrue(ticketId > 0);
+        assertEquals("Stuck in a wall", serverB.getTicket(ticketId).getDescription()); // Now cached on B
+
+        serverA.updateTicket(ticketId, "Stuck in a wall near spawn");
+        assertEquals("Stuck in a wall", serverB.getTicket(ticketId).getDescription()); // Stale until B polls
+
+        assertEquals(2, feedB.poll(1L));
+        assertEquals(Arrays.asList(TicketEvent.Type.CREATED, TicketEvent.Type.UPDATED), types(receivedByB));
+        assertEquals("Stuck in a wall near spawn", serverB.getTicket(ticketId).getDescription());
+
+        assertTrue(serverB.closeTicket(ticketId, UUID.randomUUID(), null));
+        assertEquals(1, feedA.poll(2L));
+        assertEquals(TicketEvent.Type.CLOSED, receivedByA.get(0).getType());
+        assertTrue(serverA.getTicket(ticketId).isClosed());
+
+        // Each server skips its own events
+        assertEquals(0, feedA.poll(3L));
+        assertEquals(0, feedB.poll(3L));
+        assertEquals(1, receivedByA.size());
+        assertEquals(2, receivedByB.size());
+    }
+
+    @Test
+    void appliesLateCommitInsideHole() throws SQLException {
+        long start = feedB.getHighWaterMark();
+        // start + 1 was handed out first but commits after start + 2
+        insertEvent(start + 2, 2);
+        assertEquals(1, feedB.poll(1L));
+        assertEquals(start + 2, feedB.getHighWaterMark());
+        assertEquals(1, feedB.getGapCount());
+
+        insertEvent(start + 1, 1);
+        assertEquals(1, feedB.poll(2L));
+        assertEquals(0, feedB.getGapCount());
+        assertEquals(Arrays.asList(2, 1), ticketIds(receivedByB));
+
+        // Neither event is applied twice
+        assertEquals(0, feedB.poll(3L));
+    }
+
+    @Test
+    void givesUpOnHoleAfterTimeout() throws SQLException {
+        long start = feedB.getHighWaterMark();
+        insertEvent(start + 2, 2);
+        feedB.poll(1L);
+        assertEquals(1, feedB.getGapCount());
+
+        feedB.poll(1L + GAP_TIMEOUT + 1L);
+        assertEquals(0, feedB.getGapCount());
+
+        // A commit this late is treated like a rolled back transaction
+        insertEvent(start + 1, 1);
+        assertEquals(0, feedB.poll(2L + GAP_TIMEOUT));
+        assertEquals(Arrays.asList(2), ticketIds(receivedByB));
+    }
+
+    @Test
+    void onlyWaitsForHolesUpToMaxGap() throws SQLException {
+        long start = feedB.getHighWaterMark();
+        long jump = start + TicketEventFeed.MAX_GAP * 5;
+        insertEvent(jump, 7);
+
+        assertEquals(1, feedB.poll(1L));
+        assertEquals(jump, feedB.getHighWaterMark());
+        assertEquals(TicketEventFeed.MAX_GAP, feedB.getGapCount());
+
+        // Just below the jump is still waited for, far below it is not
+        insertEvent(jump - 1, 8);
+        insertEvent(start + 1, 9);
+        assertEquals(1, feedB.poll(2L));
+        assertEquals(Arrays.asList(7, 8), ticketIds(receivedByB));
+    }
+
+
+    private DatabaseManager connect(String nodeId) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("database-type", "sqlite");
+        config.set("database-name", "tickets");
+        config.set("database-pool-size", 2);
+        config.set("database-pool-min-idle", 1);
+        config.set("sync-enabled", true);
+        config.set("sync-node-id", nodeId);
+        DatabaseManager databaseManager = new DatabaseManager(dataFolder, config, new Metrics());
+        databaseManager.connectToDatabase();
+        return databaseManager;
+    }
+
+    // Writes an event with a chosen sequence number on server A, the way a slow MySQL transaction would commit it
+    private void insertEvent(long sequence, int ticketId) throws SQLException {
+        try (Connection connection = serverA.getWriteConnection(); PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO ticket_events (seq, ticket_id, event, node_id, created_at) VALUES (?, ?, ?, ?, ?)")) {
+            preparedStatement.setLong(1, sequence);
+            preparedStatement.setInt(2, ticketId);
+            preparedStatement.setString(3, TicketEvent.Type.UPDATED.name());
+            preparedStatement.setString(4, "a");
+            preparedStatement.setLong(5, System.currentTimeMillis());
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    private static List<TicketEvent.Type> types(List<TicketEvent> events) {
+        List<TicketEvent.Type> types = new ArrayList<>();
+        for (TicketEvent event : events) {
+            types.add(event.getType());
+        }
+        return types;
+    }
+
+    private static List<Integer> ticketIds(List<TicketEvent> events) {
+        List<Integer> ticketIds = new ArrayList<>();
+        for (TicketEvent event : events) {
+            ticketIds.add(event.getTicketId());
+        }
+        return ticketIds;
+    }
+}